@@ -2,6 +2,7 @@ package main.java.constants;
 
 public class AppConstants {
     public static final String PEER_DIRECTORY_NAME = "peer_%s";
+    public static final String PIECE_JOURNAL_FILE_NAME = "%s.bitfield";
     public static final String CONFIG_FILE_REGEX = "\\s+";
     public static final String PEER_CONFIGURATION_FILE_NAME = "PeerInfo.cfg";
     public static final String COMMON_CONFIGURATION_FILE_NAME = "Common.cfg";
@@ -11,20 +12,68 @@ public class AppConstants {
     public static final String FILE_NAME = "FileName";
     public static final String FILE_SIZE = "FileSize";
     public static final String PIECE_SIZE = "PieceSize";
+    public static final String CONNECTION_MODE = "ConnectionMode";
+    public static final String CONNECTION_MODE_THREAD = "thread";
+    public static final String CONNECTION_MODE_NIO = "nio";
+    public static final String CONNECTION_MODE_VIRTUAL = "virtual";
+    public static final String MAX_CONNECTIONS = "MaxConnections";
+    public static final String NEIGHBOR_SELECTION = "NeighborSelection";
+    public static final String TRACKER = "Tracker";
+    public static final String PEER_EXCHANGE = "PeerExchange";
+    public static final String TRACKER_ADDRESS_SEPARATOR = ":";
+    public static final String TRACKER_ANNOUNCE = "ANNOUNCE";
+    public static final String TRACKER_ANNOUNCE_FORMAT = "ANNOUNCE %s %s %s %s\n";
+    public static final String TRACKER_PEER_ENTRY = "%s %s %s %s\n";
+    public static final String LOG_LEVEL = "LogLevel";
+    public static final String LOG_TO_CONSOLE = "LogToConsole";
+    public static final String LOG_SAMPLING = "LogSampling";
+    public static final String LOG_SAMPLING_SEPARATOR = ",";
+    public static final String LOG_SAMPLE_RATE_SEPARATOR = ":";
     public static final int PEER_HAS_FILE = 1;
     public static final int PEER_HAS_NO_FILE = 0;
     public static final String HANDSHAKE_MESSAGE_HEADER = "P2PFILESHARINGPROJ";
     public static final String HANDSHAKE_MESSAGE_ZERO_BITS = "0000000000";
     public static final String LOG_FILE_PATH = "%s%slog_peer_%s.log";
     public static final String LOG_TIME_FORMAT = "yyyy/MM/dd HH:mm:ss";
+    public static final int LOG_BUFFER_CAPACITY = 8192;
+    public static final long LOG_FLUSH_TIMEOUT = 1000L;
     public static final int BYTE_SIZE = 32;
     public static final String USER_DIR = "user.dir";
     public static final  int INT_SIZE_BYTES = 4;
     public static final int MESSAGE_TYPE_SIZE = 1;
     public static final int HAS_BITFIELD = 1;
     public static final int THREAD_POOL_SIZE = 10;
+    public static final int NIO_IO_THREAD_COUNT = 2;
     public static final int MESSAGE_HOLD_PERIOD = 1000;
+    public static final int PIECE_SYNC_BATCH_SIZE = 16;
+    public static final int PIECE_COPY_CHUNK_SIZE = 16384;
+    public static final int COALESCED_MESSAGES_BUFFER_SIZE = 16384;
+
+    public static final int INITIAL_REQUEST_WINDOW = 2;
+    public static final int MIN_REQUEST_WINDOW = 1;
+    public static final int MAX_REQUEST_WINDOW = 64;
+    public static final double RATE_SMOOTHING_FACTOR = 0.125;
+    public static final int INITIAL_AVAILABILITY_LEVELS = 8;
+    public static final double RTT_VARIATION_SMOOTHING_FACTOR = 0.25;
+    public static final int RTT_VARIATION_MULTIPLIER = 4;
+    public static final long INITIAL_REQUEST_TIMEOUT = 3000L;
+    public static final long MIN_REQUEST_TIMEOUT = 200L;
+    public static final long MAX_REQUEST_TIMEOUT = 30000L;
+    public static final long REQUEST_TIMEOUT_CHECK_INTERVAL = 250L;
+    public static final long HAVE_BATCH_WINDOW = 50L;
+    public static final int INITIAL_HAVE_BATCH_SIZE = 64;
+    public static final long THROUGHPUT_SAMPLE_INTERVAL = 1000L;
+    public static final int MAX_CONCURRENT_DIALS = 64;
+    public static final int CONNECT_TIMEOUT = 3000;
+    public static final int MAX_CONNECT_ATTEMPTS = 10;
+    public static final long INITIAL_CONNECT_BACKOFF = 100L;
+    public static final long MAX_CONNECT_BACKOFF = 5000L;
+    public static final long NEIGHBOR_ROTATION_INTERVAL = 2000L;
+    public static final long TRACKER_ANNOUNCE_INTERVAL = 5000L;
+    public static final long TRACKER_PEER_EXPIRY = 3 * TRACKER_ANNOUNCE_INTERVAL;
+    public static final int TRACKER_PEER_LIST_SIZE = 50;
+    public static final long PEER_EXCHANGE_INTERVAL = 5000L;
+    public static final int PEER_EXCHANGE_LIST_SIZE = 50;
 
-    public static final int TIME_CONSTANT = 100_000_000;
     public static final long DELAY = 1000L;
 }
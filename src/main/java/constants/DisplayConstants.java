@@ -2,6 +2,7 @@ package main.java.constants;
 
 public class DisplayConstants {
     public static final String INIT_PEER_MESSAGE = "Initiating Peer Process %s";
+    public static final String INIT_TRACKER_MESSAGE = "Initiating Tracker on port %s";
     public static final String MAKE_CONNECTION_MESSAGE = "Peer %s makes a connection to Peer %s.";
     public static final String CONNECTED_MESSAGE = "Peer %s is connected from Peer %s.";
     public static final String PREFERRED_NEIGHBORS_MESSAGE = "Peer %s has the preferred neighbors%s";
@@ -13,4 +14,16 @@ public class DisplayConstants {
     public static final String NOT_INTERESTED_MESSAGE = "Peer %s received the 'not interested' message from %s.";
     public static final String DOWNLOAD_CHUNK_MESSAGE = "Peer %s has downloaded the piece %s from %s. Now the number of pieces it has is %s.";
     public static final String DOWNLOAD_COMPLETE_MESSAGE = "Peer %s has downloaded the complete file.";
+    public static final String INCOMPLETE_WRITE_MESSAGE = "Message to Peer %s could not be written in full.";
+    public static final String INVALID_PIECE_MESSAGE = "Piece message for piece %s with %s bytes does not match the file.";
+    public static final String INVALID_PIECE_INDEX_MESSAGE = "Piece %s is not one of the %s pieces of the file.";
+    public static final String INVALID_HAVE_MESSAGE = "Have message for piece %s from Peer %s does not match the file.";
+    public static final String INVALID_HAVE_BATCH_MESSAGE = "Have batch message with %s bytes from Peer %s does not hold whole piece indices.";
+    public static final String INVALID_REQUEST_MESSAGE = "Request for piece %s does not match a piece Peer %s holds.";
+    public static final String FLUSH_FAILED_MESSAGE = "Peer %s could not force the downloaded file to disk: %s";
+    public static final String CONNECT_FAILED_MESSAGE = "Peer %s could not connect to Peer %s after %s attempts.";
+    public static final String TRACKER_UNAVAILABLE_MESSAGE = "Peer %s could not announce itself to the tracker at %s:%s.";
+    public static final String PEER_DISCOVERED_MESSAGE = "Peer %s learned of Peer %s from the tracker.";
+    public static final String PEER_EXCHANGED_MESSAGE = "Peer %s learned of Peer %s from Peer %s.";
+    public static final String VIRTUAL_THREADS_UNAVAILABLE_MESSAGE = "Virtual threads are not available on this JVM, using platform threads.";
 }
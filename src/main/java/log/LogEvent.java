@@ -0,0 +1,33 @@
+package main.java.log;
+
+/**
+ * Enum representing the types of events logged by a peer, each with its level. The events
+ * logged for every piece are at DEBUG, so they can be left out of busy peers' logs.
+ */
+public enum LogEvent {
+    CONNECTION(LogLevel.INFO),
+    PREFERRED_NEIGHBORS(LogLevel.INFO),
+    OPTIMISTIC_UNCHOKE(LogLevel.INFO),
+    UNCHOKED(LogLevel.INFO),
+    CHOKED(LogLevel.INFO),
+    HAVE(LogLevel.DEBUG),
+    INTERESTED(LogLevel.INFO),
+    NOT_INTERESTED(LogLevel.INFO),
+    PIECE(LogLevel.DEBUG),
+    COMPLETE(LogLevel.INFO);
+
+    private final LogLevel level;
+
+    LogEvent(LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * Gets the level the event is logged at.
+     *
+     * @return The level of the event.
+     */
+    public LogLevel getLevel() {
+        return level;
+    }
+}
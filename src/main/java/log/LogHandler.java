@@ -3,47 +3,155 @@ package main.java.log;
 import main.java.constants.AppConstants;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Class: LogHandler
- * Description: Handles logging functionality for the application.
+ * Description: Handles logging functionality for the application. Logged events are queued in a
+ *              bounded ring buffer and formatted and written by a background thread in batches,
+ *              so the threads handling messages never format, write or flush log lines themselves.
  */
 public class LogHandler {
 
-    // Instance variable for date-time formatting
-    private final SimpleDateFormat dateTimeStamp;
+    // Thread-safe formatter for the time stamp of every log line
+    private static final DateTimeFormatter dateTimeStamp =
+            DateTimeFormatter.ofPattern(AppConstants.LOG_TIME_FORMAT).withZone(ZoneId.systemDefault());
 
-    // PrintWriter instance to write logs to a file
-    private PrintWriter printWriter;
+    // Writer for the log file, used by the logging thread only
+    private final Writer fileWriter;
+
+    // Events waiting to be written, events that did not fit from threads that never wait, and the number
+    // of events of each type logged so far
+    private final BlockingQueue<LogRecord> logRecords;
+    private final Queue<LogRecord> overflowRecords;
+    private final AtomicLongArray eventCounts;
+
+    // Whether the current thread waits for room in a full buffer; the event loop's I/O threads never do
+    private static final ThreadLocal<Boolean> isWaitingAllowed = ThreadLocal.withInitial(() -> Boolean.TRUE);
+
+    // Record queued only to wake the logging thread up, which writes nothing
+    private static final LogRecord WAKE_UP_RECORD = new LogRecord(0, null, null, null);
+
+    // Logging options, configurable from Common.cfg
+    private volatile boolean isConsoleEnabled;
+    private volatile LogLevel logLevel;
+    private final int[] sampleRates;
 
     /**
      * Constructor: LogHandler
      * Parameters:
      *   - peerProcessId: ID of the peer for which logging is performed
      * Description: Initializes the LogHandler with the specified peerProcessId.
-     *              Creates a log file and prepares PrintWriter for writing logs.
+     *              Creates a log file and starts the thread writing the logged events to it.
+     *              Events still queued when the process exits are written by a shutdown hook.
      * Throws: IOException if there is an issue with file operations.
      */
     public LogHandler(int peerProcessId) throws IOException {
-        dateTimeStamp = new SimpleDateFormat(AppConstants.LOG_TIME_FORMAT);
         String logFilePath = String.format(AppConstants.LOG_FILE_PATH, System.getProperty(AppConstants.USER_DIR), File.separator, peerProcessId);
-        printWriter = new PrintWriter(logFilePath);
-        printWriter.flush();
+        fileWriter = new BufferedWriter(new FileWriter(logFilePath));
+        logRecords = new ArrayBlockingQueue<>(AppConstants.LOG_BUFFER_CAPACITY);
+        overflowRecords = new ConcurrentLinkedQueue<>();
+        eventCounts = new AtomicLongArray(LogEvent.values().length);
+
+        isConsoleEnabled = true;
+        logLevel = LogLevel.DEBUG;
+        sampleRates = new int[LogEvent.values().length];
+        Arrays.fill(sampleRates, 1);
+
+        Thread logThread = new Thread(this::writeLogRecords);
+        logThread.setDaemon(true);
+        logThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    /**
+     * Method: setConsoleEnabled
+     * Parameters:
+     *   - isConsoleEnabled: True to print logged events to the console as well as the log file
+     * Description: Enables or disables printing logged events to the console.
+     */
+    public void setConsoleEnabled(boolean isConsoleEnabled) {
+        this.isConsoleEnabled = isConsoleEnabled;
+    }
+
+    /**
+     * Method: setLogLevel
+     * Parameters:
+     *   - logLevel: Lowest level of the events to log
+     * Description: Sets the level below which events are not logged.
+     */
+    public void setLogLevel(LogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Method: setSampleRate
+     * Parameters:
+     *   - event: Type of the event
+     *   - sampleRate: Number of events of the type per event logged, 1 to log every event
+     * Description: Logs only one in every sampleRate events of the given type.
+     */
+    public void setSampleRate(LogEvent event, int sampleRate) {
+        sampleRates[event.ordinal()] = Math.max(1, sampleRate);
     }
 
     /**
-     * Method: printMessageAndLogMessageToFile
+     * Method: disallowWaiting
+     * Description: Keeps the current thread from ever waiting on a full buffer, for threads that serve many
+     *              connections at once, such as the event loop's I/O threads. Their events that do not fit
+     *              are set aside and written right after the buffer, so they may appear slightly out of order.
+     */
+    public static void disallowWaiting() {
+        isWaitingAllowed.set(Boolean.FALSE);
+    }
+
+    /**
+     * Method: logEvent
      * Parameters:
-     *   - message: Message to be printed and logged
-     * Description: Prints the formatted message to the console and logs it to the file.
+     *   - event: Type of the event
+     *   - format: Format of the message, or the message itself if there are no arguments
+     *   - args: Arguments of the message
+     * Description: Queues the event to be formatted with its time stamp and written to the log file,
+     *              and printed to the console if enabled, unless its level or sampling leaves it out.
+     *              Waits only if the buffer is full, so no event is ever dropped, unless the thread may
+     *              not wait, in which case the event is set aside instead.
      */
-    public void printMessageAndLogMessageToFile(String message){
-        Date time = new Date();
-        String messageToLog = String.format("%s : %s\n", dateTimeStamp.format(time), message);
-        printMessage(messageToLog);
-        logMessageToFile(messageToLog);
+    public void logEvent(LogEvent event, String format, Object... args) {
+        if (event.getLevel().compareTo(logLevel) < 0) {
+            return;
+        }
+        int sampleRate = sampleRates[event.ordinal()];
+        if (sampleRate > 1 && eventCounts.getAndIncrement(event.ordinal()) % sampleRate != 0) {
+            return;
+        }
+
+        LogRecord logRecord = new LogRecord(System.currentTimeMillis(), format, args, null);
+        if (!isWaitingAllowed.get()) {
+            if (!logRecords.offer(logRecord)) {
+                // The logging thread is still busy with the full buffer and writes the event after it; the
+                // wake-up covers it finishing in between, with nothing left in the buffer to wake it
+                overflowRecords.add(logRecord);
+                logRecords.offer(WAKE_UP_RECORD);
+            }
+            return;
+        }
+        try {
+            logRecords.put(logRecord);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -57,14 +165,84 @@ public class LogHandler {
     }
 
     /**
-     * Method: logMessageToFile
-     * Parameters:
-     *   - message: Message to be logged to the file
-     * Description: Writes the formatted message to the log file and flushes the PrintWriter.
+     * Method: flush
+     * Description: Waits until every event queued so far has been written to the log file, up to
+     *              LOG_FLUSH_TIMEOUT milliseconds.
      */
-    public void logMessageToFile(String message){
-        printWriter.printf(message);
-        printWriter.flush();
+    public void flush() {
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            logRecords.put(new LogRecord(0, null, null, flushed));
+            flushed.await(AppConstants.LOG_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * Method: writeLogRecords
+     * Description: Runs on the logging thread. Takes every queued event at once, along with the events set
+     *              aside meanwhile, formats the batch and writes it to the log file and the console with a
+     *              single flush.
+     */
+    private void writeLogRecords() {
+        List<LogRecord> batch = new ArrayList<>();
+        StringBuilder lines = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(logRecords.take());
+                logRecords.drainTo(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+            LogRecord overflowRecord;
+            while ((overflowRecord = overflowRecords.poll()) != null) {
+                batch.add(overflowRecord);
+            }
+
+            for (LogRecord logRecord : batch) {
+                if (logRecord.format != null) {
+                    dateTimeStamp.formatTo(Instant.ofEpochMilli(logRecord.time), lines);
+                    lines.append(" : ")
+                            .append(logRecord.args.length == 0 ? logRecord.format : String.format(logRecord.format, logRecord.args))
+                            .append('\n');
+                }
+            }
+            try {
+                fileWriter.append(lines);
+                fileWriter.flush();
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+            if (isConsoleEnabled) {
+                System.out.print(lines);
+            }
+            for (LogRecord logRecord : batch) {
+                if (logRecord.flushed != null) {
+                    logRecord.flushed.countDown();
+                }
+            }
+            batch.clear();
+            lines.setLength(0);
+        }
+    }
+
+    /**
+     * Class: LogRecord
+     * Description: A queued event: its time, its message format and arguments, or the latch of a
+     *              flush request, counted down once everything queued before it has been written.
+     */
+    private static class LogRecord {
+        private final long time;
+        private final String format;
+        private final Object[] args;
+        private final CountDownLatch flushed;
+
+        private LogRecord(long time, String format, Object[] args, CountDownLatch flushed) {
+            this.time = time;
+            this.format = format;
+            this.args = args;
+            this.flushed = flushed;
+        }
+    }
+}
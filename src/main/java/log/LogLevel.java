@@ -0,0 +1,11 @@
+package main.java.log;
+
+/**
+ * Enum representing the levels of logged events, from the most to the least detailed.
+ * Events below the configured level are not logged.
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    OFF
+}
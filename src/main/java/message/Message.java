@@ -5,19 +5,21 @@ import main.java.peer.PeerConfiguration;
 import main.java.peer.PeerData;
 import main.java.constants.AppConstants;
 import main.java.peer.PeerHandler;
+import main.java.peer.InboundPiece;
 
-import java.io.DataInputStream;
-import java.io.InputStream;
-import java.net.Socket;
-import java.util.Arrays;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 
 /**
  * Class: Message
  * Description: Represents a threaded message handler responsible for managing communication with peers.
- * Extends: Thread
+ *              Runs on a platform or virtual thread created by the connection thread factory.
+ * Implements: Runnable
  */
-public class Message extends Thread {
+public class Message implements Runnable {
 
     // Instance variables for handling messages, peers, and configurations
     private final MessageHandler messageHandler;
@@ -25,6 +27,10 @@ public class Message extends Thread {
     private final PeerConnection peerConnection;
     private final PeerConfiguration peerConfiguration;
 
+    // Sizes of the length and type header of every message, and of the header of a PIECE message with its index
+    private static final int MESSAGE_HEADER_SIZE = AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE;
+    private static final int PIECE_HEADER_SIZE = MESSAGE_HEADER_SIZE + AppConstants.INT_SIZE_BYTES;
+
     /**
      * Constructor: Message
      * Parameters:
@@ -39,57 +45,86 @@ public class Message extends Thread {
         this.peerConfiguration = peerConfiguration;
     }
 
+    /**
+     * Method: readFully
+     * Parameters:
+     *   - channel: Blocking channel of the connection
+     *   - buffer: Buffer to fill up to its limit
+     * Description: Reads from the channel until the buffer is full, as DataInputStream.readFully does.
+     * Throws: IOException if an I/O error occurs, or EOFException if the connection is closed first.
+     */
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
     /**
      * Method: run
-     * Description: Overrides the run method of Thread. Manages communication with peers.
+     * Description: Implements the run method of Runnable. Manages communication with peers.
+     *              Nothing is held locked across the blocking reads, so a virtual thread running
+     *              this loop never pins its carrier thread. Message headers are read into a reused
+     *              buffer and pieces straight into the piece store, so receiving a piece allocates nothing.
      */
     @Override
     public void run() {
-        synchronized (this) {
-            try {
-                // Retrieve peer data map and current peer's data
-                Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
-                PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
-                int peerProcessId = peerData.getPeerProcessId();
+        try {
+            // Retrieve peer data map and current peer's data
+            Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
+            PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+            int peerProcessId = peerData.getPeerProcessId();
 
-                // Set up input stream for peer connection
-                InputStream peerConnectionStream = peerConnection.getConnection().getInputStream();
-                DataInputStream dataInputStream = new DataInputStream(peerConnectionStream);
+            // Set up the channel of the peer connection, with a header buffer and a piece receiver reused for every message
+            SocketChannel peerConnectionChannel = peerConnection.getConnection().getChannel();
+            ByteBuffer headerBuffer = ByteBuffer.allocate(PIECE_HEADER_SIZE);
+            InboundPiece inboundPiece = MessageHandler.createInboundPiece(peerConfiguration, peerConnection);
 
-                // Construct and send bitfield message to the peer
-                byte[] messageToSend = messageHandler.constructBitfieldMessage(peerData.getBitfield());
-                Socket connection = peerConnection.getConnection();
-                messageHandler.sendMessage(connection, messageToSend);
+            // Receive and handle messages until all peers have the file; with peers learned of while running,
+            // peers may still join, and with connections limited, the completion still has to reach the peers
+            // not connected, so messages are handled until the choke scheduler finds no peer left needing
+            // pieces and exits
+            while (peerConfiguration.isExitDeferred() || !peerConfiguration.isSwarmComplete()) {
+                // Read the message length and type
+                headerBuffer.clear().limit(MESSAGE_HEADER_SIZE);
+                readFully(peerConnectionChannel, headerBuffer);
+                int receivedMessageLength = headerBuffer.getInt(0);
+                MessageType messageType = MessageType.getMessageTypeFromByte((char) headerBuffer.get(AppConstants.INT_SIZE_BYTES));
 
-                // Receive and handle messages until all peers have the file
-                while (peerConfiguration.getNumberOfPeerHavingFile() < peerIdToDataMap.size()) {
-                    int receivedMessageLength = dataInputStream.readInt();
-                    byte[] inBuff = new byte[receivedMessageLength];
-
-                    double init = System.nanoTime();
-                    dataInputStream.readFully(inBuff);
-                    double end = System.nanoTime();
-
-                    // Extract message type and content
-                    MessageType messageType = MessageType.getMessageTypeFromByte((char) inBuff[0]);
-                    byte[] receivedMessage = Arrays.copyOfRange(inBuff, 1, receivedMessageLength);
-
-                    // Handle received message
-                    messageHandler.handleReceivedMessage(messageType, receivedMessage, peerConfiguration, peerConnection,
-                            end - init);
+                if (messageType == MessageType.PIECE) {
+                    // Read the piece index, then the piece straight into the piece store
+                    headerBuffer.limit(PIECE_HEADER_SIZE);
+                    readFully(peerConnectionChannel, headerBuffer);
+                    inboundPiece.start(headerBuffer.getInt(MESSAGE_HEADER_SIZE), receivedMessageLength - AppConstants.MESSAGE_TYPE_SIZE - AppConstants.INT_SIZE_BYTES);
+                    inboundPiece.readFrom(peerConnectionChannel);
+                    messageHandler.handlePieceMessage(peerConfiguration, peerConnection, inboundPiece.getPieceIndex(),
+                            inboundPiece.getPieceLength());
+                    continue;
                 }
 
-                // Exit connection for all connected peers if the peer has downloaded the file
-                int peerHasFile = peerIdToDataMap.get(peerProcessId).getHasFile();
-                if (peerHasFile == AppConstants.PEER_HAS_FILE) {
-                    messageHandler.notifyAllConnectionsOfExit(peerConfiguration);
-                }
+                // Read the message content and handle the message
+                byte[] receivedMessage = new byte[receivedMessageLength - AppConstants.MESSAGE_TYPE_SIZE];
+                readFully(peerConnectionChannel, ByteBuffer.wrap(receivedMessage));
+                messageHandler.handleReceivedMessage(messageType, receivedMessage, peerConfiguration, peerConnection);
+            }
+
+            // Exit connection for all connected peers if the peer has downloaded the file
+            int peerHasFile = peerIdToDataMap.get(peerProcessId).getHasFile();
+            if (peerHasFile == AppConstants.PEER_HAS_FILE) {
+                messageHandler.notifyAllConnectionsOfExit(peerConfiguration);
+            }
 
-                // Hold peer for a message hold period and handle exit message
-                peerHandler.peerHold(AppConstants.MESSAGE_HOLD_PERIOD);
-                messageHandler.handleExitMessage();
-            } catch (Exception e) {
-                // Ignore the exception without taking any action
+            // Hold peer for a message hold period and handle exit message
+            peerHandler.peerHold(AppConstants.MESSAGE_HOLD_PERIOD);
+            messageHandler.handleExitMessage();
+        } catch (Exception e) {
+            // The connection is lost or was given up; hand its reserved pieces back to the other connections
+            messageHandler.handleDisconnect(peerConfiguration, peerConnection);
+            try {
+                peerConnection.close();
+            } catch (IOException closeException) {
+                // Ignoring the exception without taking any specific action
             }
         }
     }
@@ -0,0 +1,295 @@
+package main.java.message;
+
+import main.java.constants.AppConstants;
+import main.java.log.LogHandler;
+import main.java.peer.PeerConfiguration;
+import main.java.peer.PeerConnection;
+import main.java.peer.PeerData;
+import main.java.peer.PeerHandler;
+import main.java.peer.InboundPiece;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class: MessageEventLoop
+ * Description: Non-blocking alternative to one Message thread per connection. A small fixed number of
+ *              I/O threads each run a Selector over their share of the connections, frame incoming
+ *              messages the same way Message.run does and dispatch them to MessageHandler.
+ */
+public class MessageEventLoop {
+
+    // Sizes of the length and type header of every message, and of the header of a PIECE message with its index
+    private static final int MESSAGE_HEADER_SIZE = AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE;
+    private static final int PIECE_HEADER_SIZE = MESSAGE_HEADER_SIZE + AppConstants.INT_SIZE_BYTES;
+
+    private final PeerConfiguration peerConfiguration;
+    private final IoThread[] ioThreads;
+    private final AtomicInteger nextIoThread;
+    private final AtomicBoolean isExiting;
+
+    /**
+     * Constructor: MessageEventLoop
+     * Parameters:
+     *   - peerConfiguration: Configuration details for the peer
+     *   - numberOfIoThreads: Number of I/O threads sharing the connections
+     * Description: Opens a Selector per I/O thread and starts the threads.
+     * Throws: IOException if a Selector cannot be opened.
+     */
+    public MessageEventLoop(PeerConfiguration peerConfiguration, int numberOfIoThreads) throws IOException {
+        this.peerConfiguration = peerConfiguration;
+        this.nextIoThread = new AtomicInteger(0);
+        this.isExiting = new AtomicBoolean(false);
+
+        ioThreads = new IoThread[numberOfIoThreads];
+        for (int i = 0; i < numberOfIoThreads; i++) {
+            ioThreads[i] = new IoThread(Selector.open());
+            ioThreads[i].start();
+        }
+    }
+
+    /**
+     * Method: register
+     * Parameters:
+     *   - peerConnection: Connection to a peer whose handshake has completed
+     * Description: Switches the connection to non-blocking mode and hands it to one of the I/O threads.
+     * Throws: IOException if the connection cannot be switched to non-blocking mode.
+     */
+    public void register(PeerConnection peerConnection) throws IOException {
+        SocketChannel channel = peerConnection.getConnection().getChannel();
+        channel.configureBlocking(false);
+
+        IoThread ioThread = ioThreads[Math.floorMod(nextIoThread.getAndIncrement(), ioThreads.length)];
+        ioThread.pendingConnections.add(peerConnection);
+        ioThread.selector.wakeup();
+    }
+
+    /**
+     * Method: checkCompletionAndExit
+     * Description: Mirrors the end of Message.run once every peer has the file: notifies all
+     *              connections of the exit if this peer has the file, then exits after the hold period.
+     *              The exit runs on a thread of the connection thread factory so the queued messages
+     *              can still be written out.
+     *              With peers learned of while running or connections limited, the exit is left to the
+     *              choke scheduler, as in Message.run.
+     */
+    private void checkCompletionAndExit() throws IOException {
+        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
+        if (peerConfiguration.isExitDeferred() || !peerConfiguration.isSwarmComplete() || !isExiting.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (peerIdToDataMap.get(peerConfiguration.getPeerProcessId()).getHasFile() == AppConstants.PEER_HAS_FILE) {
+            MessageHandler.notifyAllConnectionsOfExit(peerConfiguration);
+        }
+        peerConfiguration.getConnectionThreadFactory().newThread(() -> {
+            PeerHandler.peerHold(AppConstants.MESSAGE_HOLD_PERIOD);
+            MessageHandler.handleExitMessage();
+        }).start();
+    }
+
+    /**
+     * Class: ConnectionState
+     * Description: Framing state of a single connection: the length and type header being read, reused
+     *              for every message and extended by the index for a PIECE message, the type of the message
+     *              whose content is being read, and its content or piece.
+     */
+    private static class ConnectionState {
+        private final PeerConnection peerConnection;
+        private final ByteBuffer headerBuffer = ByteBuffer.allocate(PIECE_HEADER_SIZE).limit(MESSAGE_HEADER_SIZE);
+        private final InboundPiece inboundPiece;
+        private MessageType messageType;
+        private ByteBuffer messageBuffer;
+
+        private ConnectionState(PeerConnection peerConnection, InboundPiece inboundPiece) {
+            this.peerConnection = peerConnection;
+            this.inboundPiece = inboundPiece;
+        }
+    }
+
+    /**
+     * Class: IoThread
+     * Description: Runs one Selector, reading, framing and dispatching messages for its connections
+     *              and writing out their queued outbound messages.
+     */
+    private class IoThread extends Thread {
+        private final Selector selector;
+        private final Queue<PeerConnection> pendingConnections;
+
+        private IoThread(Selector selector) {
+            this.selector = selector;
+            this.pendingConnections = new ConcurrentLinkedQueue<>();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // Every connection of this thread would stall behind a wait for the log
+            LogHandler.disallowWaiting();
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    registerPendingConnections();
+
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        handleSelectedKey(key);
+                    }
+                } catch (IOException e) {
+                    // Ignoring the exception without taking any specific action
+                }
+            }
+        }
+
+        /**
+         * Method: registerPendingConnections
+         * Description: Registers the connections handed over by register() with this thread's Selector.
+         */
+        private void registerPendingConnections() throws IOException {
+            PeerConnection peerConnection;
+            while ((peerConnection = pendingConnections.poll()) != null) {
+                SocketChannel channel = peerConnection.getConnection().getChannel();
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, new ConnectionState(peerConnection,
+                        MessageHandler.createInboundPiece(peerConfiguration, peerConnection)));
+                peerConnection.setSelectionKey(key);
+                if (peerConnection.hasOutboundMessages()) {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        /**
+         * Method: handleSelectedKey
+         * Description: Reads and writes on a ready connection, closing it if either fails.
+         */
+        private void handleSelectedKey(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    readMessages(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeMessages(key);
+                }
+            } catch (Exception e) {
+                closeConnection(key);
+            }
+        }
+
+        /**
+         * Method: readMessages
+         * Description: Reads as much as is available, dispatching every complete message. Pieces are
+         *              received straight into the piece store, resuming where the last read stopped.
+         *              Nothing dispatched here waits on the disk: pieces are forced to disk by the piece
+         *              syncer, and logged events never wait for the log to be written.
+         */
+        private void readMessages(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            ConnectionState connectionState = (ConnectionState) key.attachment();
+
+            while (true) {
+                if (connectionState.messageType == null) {
+                    if (channel.read(connectionState.headerBuffer) < 0) {
+                        closeConnection(key);
+                        return;
+                    }
+                    if (connectionState.headerBuffer.hasRemaining()) {
+                        return;
+                    }
+                    ByteBuffer headerBuffer = connectionState.headerBuffer;
+                    int receivedMessageLength = headerBuffer.getInt(0);
+                    MessageType messageType = MessageType.getMessageTypeFromByte((char) headerBuffer.get(AppConstants.INT_SIZE_BYTES));
+
+                    // A PIECE message carries its index in the header too
+                    if (messageType == MessageType.PIECE && headerBuffer.limit() < PIECE_HEADER_SIZE) {
+                        headerBuffer.limit(PIECE_HEADER_SIZE);
+                        continue;
+                    }
+                    if (messageType == MessageType.PIECE) {
+                        connectionState.inboundPiece.start(headerBuffer.getInt(MESSAGE_HEADER_SIZE),
+                                receivedMessageLength - AppConstants.MESSAGE_TYPE_SIZE - AppConstants.INT_SIZE_BYTES);
+                    } else {
+                        connectionState.messageBuffer = ByteBuffer.allocate(receivedMessageLength - AppConstants.MESSAGE_TYPE_SIZE);
+                    }
+                    headerBuffer.clear().limit(MESSAGE_HEADER_SIZE);
+                    connectionState.messageType = messageType;
+                }
+
+                if (connectionState.messageType == MessageType.PIECE) {
+                    // Receive the piece straight into the piece store, and handle the message once it is complete
+                    InboundPiece inboundPiece = connectionState.inboundPiece;
+                    if (!inboundPiece.readFrom(channel)) {
+                        return;
+                    }
+                    connectionState.messageType = null;
+                    MessageHandler.handlePieceMessage(peerConfiguration, connectionState.peerConnection,
+                            inboundPiece.getPieceIndex(), inboundPiece.getPieceLength());
+                } else {
+                    if (channel.read(connectionState.messageBuffer) < 0) {
+                        closeConnection(key);
+                        return;
+                    }
+                    if (connectionState.messageBuffer.hasRemaining()) {
+                        return;
+                    }
+                    MessageType messageType = connectionState.messageType;
+                    byte[] receivedMessage = connectionState.messageBuffer.array();
+                    connectionState.messageType = null;
+                    connectionState.messageBuffer = null;
+
+                    // Handle the message
+                    MessageHandler.handleReceivedMessage(messageType, receivedMessage, peerConfiguration,
+                            connectionState.peerConnection);
+                }
+                checkCompletionAndExit();
+            }
+        }
+
+        /**
+         * Method: writeMessages
+         * Description: Writes queued outbound messages until the queue is empty or the socket buffer is full.
+         */
+        private void writeMessages(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            PeerConnection peerConnection = ((ConnectionState) key.attachment()).peerConnection;
+
+            if (!peerConnection.writeOutboundMessages(channel)) {
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+
+            // A message may have been queued after the queue was drained but before write interest was cleared
+            if (peerConnection.hasOutboundMessages()) {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Method: closeConnection
+         * Description: Cancels the key and closes the channel of a failed connection, handing its
+         *              reserved pieces back to the other connections.
+         */
+        private void closeConnection(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            key.cancel();
+            MessageHandler.handleDisconnect(peerConfiguration, ((ConnectionState) key.attachment()).peerConnection);
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+        }
+    }
+}
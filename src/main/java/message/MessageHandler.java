@@ -2,14 +2,22 @@ package main.java.message;
 
 import main.java.constants.AppConstants;
 import main.java.constants.DisplayConstants;
+import main.java.log.LogEvent;
 import main.java.peer.PeerConfiguration;
 import main.java.peer.PeerConnection;
 import main.java.peer.PeerData;
 import main.java.peer.PeerHandler;
+import main.java.peer.Bitfield;
+import main.java.peer.InboundPiece;
+import main.java.peer.OutboundMessage;
+import main.java.peer.PiecePicker;
+import main.java.peer.RequestPipeline;
+import main.java.storage.PieceStore;
 
 import java.io.*;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static java.lang.System.*;
@@ -48,6 +56,31 @@ public class MessageHandler {
         dataOutputStream.flush();
     }
 
+    /**
+     * Sends a byte array message to the specified peer connection by queuing it for the connection's writer.
+     *
+     * @param peerConnection The connection to send the message through.
+     * @param message        The byte array message to be sent.
+     * @throws IOException If an I/O error occurs during the message sending process.
+     */
+    public static void sendMessage(PeerConnection peerConnection, byte[] message) throws IOException {
+        sendMessage(peerConnection, new OutboundMessage(message));
+    }
+
+    /**
+     * Sends a message, possibly one whose piece is transferred from the piece store, to the specified
+     * peer connection. The message is queued for the connection's single writer, the event loop's I/O
+     * thread in non-blocking mode and its MessageWriter otherwise, so the caller never waits on the socket.
+     * A failed write closes the connection instead of surfacing here.
+     *
+     * @param peerConnection The connection to send the message through.
+     * @param message        The message to be sent.
+     * @throws IOException If an I/O error occurs during the message sending process.
+     */
+    public static void sendMessage(PeerConnection peerConnection, OutboundMessage message) throws IOException {
+        peerConnection.enqueueOutboundMessage(message);
+    }
+
     /**
      * Reads and accepts a byte array message from the specified socket connection.
      *
@@ -64,29 +97,27 @@ public class MessageHandler {
     }
 
     /**
-     * Handles the received message based on its type and performs appropriate actions.
+     * Handles the received message based on its type and performs appropriate actions. PIECE messages
+     * are received straight into the piece store instead and handled by handlePieceMessage.
      *
      * @param messageType       The type of the received message.
      * @param receivedMessage   The byte array containing the received message.
      * @param peerConfiguration The configuration of the peer.
      * @param peerConnection    The connection information for the peer.
-     * @param totalTime         The total time elapsed for the operation.
      * @throws IOException If an I/O error occurs during message handling.
      */
-    public static void handleReceivedMessage(MessageType messageType, byte[] receivedMessage, PeerConfiguration peerConfiguration, PeerConnection peerConnection, double totalTime) throws IOException {
+    public static void handleReceivedMessage(MessageType messageType, byte[] receivedMessage, PeerConfiguration peerConfiguration, PeerConnection peerConnection) throws IOException {
         switch (messageType){
             case REQUEST:
-                sendMessage(peerConnection.getConnection(),
-                        createPieceMessage(ByteBuffer.wrap(receivedMessage).getInt(),
-                                peerConfiguration.getChunks()[ByteBuffer.wrap(receivedMessage).getInt()]));
+                handleRequestMessage(peerConfiguration, peerConnection, ByteBuffer.wrap(receivedMessage).getInt());
                 break;
 
             case HAVE:
-                handleHaveMessage(peerConfiguration, peerConnection, receivedMessage);
+                handleHaveMessage(peerConfiguration, peerConnection, ByteBuffer.wrap(receivedMessage).getInt());
                 break;
 
-            case PIECE:
-                handlePieceMessage(peerConfiguration, peerConnection, receivedMessage, totalTime/AppConstants.TIME_CONSTANT);
+            case HAVE_BATCH:
+                handleHaveBatchMessage(peerConfiguration, peerConnection, receivedMessage);
                 break;
 
             case INTERESTED:
@@ -109,8 +140,20 @@ public class MessageHandler {
                 handleBitfieldMessage(peerConfiguration, peerConnection, receivedMessage);
                 break;
 
+            case HAVE_ALL:
+                handleBitfieldMessage(peerConfiguration, peerConnection, Bitfield.complete(peerConfiguration.getChunks().getNumberOfPieces()));
+                break;
+
+            case HAVE_NONE:
+                handleBitfieldMessage(peerConfiguration, peerConnection, new Bitfield(peerConfiguration.getChunks().getNumberOfPieces()));
+                break;
+
+            case PEER_EXCHANGE:
+                handlePeerExchangeMessage(peerConfiguration, peerConnection, receivedMessage);
+                break;
+
             case EXIT:
-                handleExitMessage();
+                handleExitMessage(peerConfiguration);
                 break;
 
             default:
@@ -133,6 +176,7 @@ public class MessageHandler {
 
     /**
      * Accepts an incoming connection, reads the handshake message, and establishes the connection details.
+     * The connecting peer is added to the known peers if it is not known yet.
      *
      * @param connection        The socket connection to accept and read the handshake message from.
      * @param peerConfiguration The configuration of the peer.
@@ -144,9 +188,14 @@ public class MessageHandler {
             byte[] byteMessage = acceptMessage(connection);
             int connPeerProcessId = ByteBuffer.wrap(byteMessage, 32-4, AppConstants.INT_SIZE_BYTES).getInt();
             String message = String.format(DisplayConstants.CONNECTED_MESSAGE, peerProcessId, connPeerProcessId );
-            setHandshakeAndConnection(connection, peerConfiguration, message, byteMessage, connPeerProcessId, connPeerProcessId );
 
+            // A peer not listed in PeerInfo.cfg and not learned of from the tracker yet is added without the port
+            // it accepts connections on, which the tracker fills in later
+            peerConfiguration.addPeer(new PeerData(connPeerProcessId, connection.getInetAddress().getHostAddress(), 0, AppConstants.PEER_HAS_NO_FILE));
+
+            // Reply to the handshake before the connection starts carrying actual messages
             createAndSendHandshake(connection, peerConfiguration);
+            setHandshakeAndConnection(connection, peerConfiguration, message, byteMessage, connPeerProcessId, connPeerProcessId, false);
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -170,7 +219,7 @@ public class MessageHandler {
                 connection.close();
             }else{
                 String message = String.format(DisplayConstants.MAKE_CONNECTION_MESSAGE, peerProcessId, connPeerProcessId);
-                setHandshakeAndConnection(connection, peerConfiguration, message, byteMessage, connPeerProcessId, peerID );
+                setHandshakeAndConnection(connection, peerConfiguration, message, byteMessage, connPeerProcessId, peerID, true);
 
             }
         } catch (IOException e) {
@@ -233,83 +282,119 @@ public class MessageHandler {
     }
 
     /**
-     * Constructs a bitfield message byte array with the specified bitfield values.
+     * Constructs the message announcing the given bitfield: a HAVE_ALL message for a complete bitfield,
+     * a HAVE_NONE message for an empty one, and otherwise a bitfield message carrying one bit per piece.
      *
-     * @param bitfield The array of bitfield values to be included in the message.
-     * @return The byte array representing the constructed bitfield message.
+     * @param bitfield The bitfield to be announced.
+     * @return The byte array representing the constructed message.
      */
-    public byte[] constructBitfieldMessage(int[] bitfield){
-        int msgLen = 1 + (AppConstants.INT_SIZE_BYTES * bitfield.length);
-        byte[] message = new byte[msgLen - 1];
-        int index = 0;
-        for (int i = 0; i < bitfield.length; i++) {
-            int bit = bitfield[i];
-            byte[] byteMessage = getByteArrayMessageInt(AppConstants.INT_SIZE_BYTES, bit);
-            arraycopy(byteMessage, 0, message, index, byteMessage.length);
-            index += byteMessage.length;
+    public byte[] constructBitfieldMessage(Bitfield bitfield){
+        if (bitfield.isComplete()) {
+            return constructMessage(AppConstants.MESSAGE_TYPE_SIZE, MessageType.HAVE_ALL, null);
         }
-        return constructMessage(msgLen, MessageType.BITFIELD, message);
+        if (bitfield.isEmpty()) {
+            return constructMessage(AppConstants.MESSAGE_TYPE_SIZE, MessageType.HAVE_NONE, null);
+        }
+        byte[] message = bitfield.toByteArray();
+        return constructMessage(AppConstants.MESSAGE_TYPE_SIZE + message.length, MessageType.BITFIELD, message);
     }
 
     /**
-     * Creates a piece message byte array with the specified piece index and content.
+     * Creates a piece message whose header is built in memory and whose content is transferred
+     * straight from the piece store to the socket when the message is written.
      *
      * @param pieceIndex The index of the piece in the file.
-     * @param piece      The content of the piece.
-     * @return The byte array representing the constructed piece message.
+     * @param pieceStore The piece store holding the piece.
+     * @return The outbound piece message.
      */
-    public static byte[] createPieceMessage(int pieceIndex, byte[] piece){
-        byte[] indexBytes = getByteArrayMessageInt(AppConstants.INT_SIZE_BYTES, pieceIndex);
-        byte[] messageContent = new byte[indexBytes.length + piece.length];
-
-        System.arraycopy(indexBytes, 0, messageContent, 0, indexBytes.length);
-        System.arraycopy(piece, 0, messageContent, indexBytes.length, piece.length);
+    public static OutboundMessage createPieceMessage(int pieceIndex, PieceStore pieceStore){
+        int messageSize = AppConstants.MESSAGE_TYPE_SIZE + AppConstants.INT_SIZE_BYTES + pieceStore.getPieceLength(pieceIndex);
+        byte[] header = ByteBuffer.allocate(AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE + AppConstants.INT_SIZE_BYTES)
+                .putInt(messageSize)
+                .put(MessageType.getByteFromMessageType(MessageType.PIECE))
+                .putInt(pieceIndex)
+                .array();
+        return new OutboundMessage(header, pieceStore, pieceIndex);
+    }
 
-        return constructMessage(AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE + piece.length, MessageType.PIECE, messageContent);
+    /**
+     * Handles a REQUEST message by queuing the requested piece. A request from a choked peer is dropped, as
+     * it may have been sent before the peer received the choke; a request for a piece outside the file or
+     * one this peer does not hold was never announced, so it is a protocol error that closes the connection.
+     *
+     * @param peerConfiguration The configuration of the peer.
+     * @param peerConnection    The connection the request arrived on.
+     * @param index             The index of the requested piece.
+     * @throws IOException If the request is invalid or an I/O error occurs during the message sending process.
+     */
+    public static void handleRequestMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, int index) throws IOException {
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        if (index < 0 || index >= peerConfiguration.getChunks().getNumberOfPieces() || !peerData.getBitfield().has(index)) {
+            throw new IOException(String.format(DisplayConstants.INVALID_REQUEST_MESSAGE, index, peerData.getPeerProcessId()));
+        }
+        if (peerConnection.getIsChoked()) {
+            return;
+        }
+        sendMessage(peerConnection, createPieceMessage(index, peerConfiguration.getChunks()));
     }
 
     /**
-     * Updates the local bitfield status, identifies missing chunks in the connection's bitfield,
-     * and sends a request.
+     * Gives up the connection's timed-out requests, then reserves the rarest missing pieces the connection's
+     * peer holds that no other connection is downloading and sends requests for them until the connection's
+     * window of outstanding requests is full. The reader of the connection and the request timeout sweep both
+     * refill it, one at a time, so a slot is never filled twice, and a connection choked meanwhile is left alone.
      *
-     * @param connection        The socket connection to send the request through.
-     * @param bitfield          The local bitfield status.
-     * @param connectionBitfield The connection's bitfield status.
+     * @param peerConfiguration The configuration of the peer.
+     * @param peerConnection    The connection to send the requests through.
      * @throws IOException If an I/O error occurs during the message sending process.
      */
-    public static void updateBitfieldStatusAndSendRequest(Socket connection, int[] bitfield, int[] connectionBitfield) throws IOException {
-        ArrayList<Integer> bitfieldIndices = new ArrayList<>();
-        for (int bitfieldIndex = 0; bitfieldIndex < bitfield.length; bitfieldIndex++) {
-            if (bitfield[bitfieldIndex] == 0 && connectionBitfield[bitfieldIndex] == AppConstants.HAS_BITFIELD) {
-                bitfieldIndices.add(bitfieldIndex);
+    public static void updateBitfieldStatusAndSendRequest(PeerConfiguration peerConfiguration, PeerConnection peerConnection) throws IOException {
+        RequestPipeline requestPipeline = peerConnection.getRequestPipeline();
+        PiecePicker piecePicker = peerConfiguration.getPiecePicker();
+        Bitfield connectionBitfield = peerConfiguration.getPeerIdToDataMap().get(peerConnection.getPeerProcessId()).getBitfield();
+
+        synchronized (peerConnection) {
+            if (peerConnection.getIsChokedByPeer()) {
+                return;
+            }
+            piecePicker.releaseReservations(peerConnection, requestPipeline.expireRequests());
+            while (requestPipeline.hasRequestSlot()) {
+                int requestChunkIndex = piecePicker.reservePiece(connectionBitfield, peerConnection, requestPipeline.getRequestTimeout());
+                if (requestChunkIndex < 0) {
+                    return;
+                }
+                requestPipeline.requestSent(requestChunkIndex);
+                sendMessage(peerConnection, constructMessage(AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE, MessageType.REQUEST, getByteArrayMessageInt(AppConstants.INT_SIZE_BYTES, requestChunkIndex)));
             }
-        }
-        if (bitfieldIndices.size() > 0) {
-            int requestChunkIndex = bitfieldIndices.get(Math.abs(new Random().nextInt() % bitfieldIndices.size()));
-            sendMessage(connection, constructMessage(AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE, MessageType.REQUEST, getByteArrayMessageInt(AppConstants.INT_SIZE_BYTES, requestChunkIndex)));
         }
     }
 
     /**
-     * Compares the local bitfield with the connection's bitfield, determines interest status,
-     * and sends an interest or not interested message accordingly.
+     * Sends an interested or not interested message when the number of pieces the connection's peer holds
+     * and the local peer lacks crosses zero, and nothing otherwise. A count that drops to zero is recounted
+     * from both bitfields first, since a HAVE and a PIECE for the same piece racing on different connections
+     * can leave it one short.
      *
-     * @param connection        The socket connection to send the interest message through.
-     * @param bitfield          The local bitfield status.
-     * @param connectionBitfield The connection's bitfield status.
+     * @param peerConfiguration The configuration of the peer.
+     * @param peerConnection    The connection to send the interest message through.
      * @throws IOException If an I/O error occurs during the message sending process.
      */
-    public static void compareBitfieldAndSendInterestMessage(Socket connection, int[] bitfield, int[] connectionBitfield) throws IOException {
-        boolean isInterested = false;
-        for (int bit = 0; bit < bitfield.length; bit++) {
-            if (bitfield[bit] == AppConstants.PEER_HAS_NO_FILE && connectionBitfield[bit] == AppConstants.PEER_HAS_FILE) {
-                isInterested = true;
-                break;
+    public static void updateInterestAndSendInterestMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection) throws IOException {
+        synchronized (peerConnection) {
+            if (peerConnection.getInterestingPieceCount() <= 0) {
+                Bitfield bitfield = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId()).getBitfield();
+                Bitfield connectionBitfield = peerConfiguration.getPeerIdToDataMap().get(peerConnection.getPeerProcessId()).getBitfield();
+                peerConnection.setInterestingPieceCount(connectionBitfield.countPiecesMissingFrom(bitfield));
             }
-        }
-        MessageType messageType = isInterested ? MessageType.INTERESTED : MessageType.NOT_INTERESTED;
-        sendMessage(connection,constructMessage(AppConstants.MESSAGE_TYPE_SIZE, messageType, null));
 
+            boolean isInterested = peerConnection.getInterestingPieceCount() > 0;
+            if (isInterested == peerConnection.getIsInterestedInPeer()) {
+                return;
+            }
+            peerConnection.setIsInterestedInPeer(isInterested);
+            MessageType messageType = isInterested ? MessageType.INTERESTED : MessageType.NOT_INTERESTED;
+            sendMessage(peerConnection, constructMessage(AppConstants.MESSAGE_TYPE_SIZE, messageType, null));
+        }
     }
 
     /**
@@ -317,98 +402,213 @@ public class MessageHandler {
      *
      * @param peerConfiguration The configuration of the peer.
      * @param peerConnection    The connection information for the peer.
-     * @param receivedMessage   The byte array containing the received HAVE message.
-     * @throws IOException If an I/O error occurs during the message handling process.
+     * @param index             The index of the piece announced in the HAVE message.
+     * @throws IOException If the index is not that of a piece of the file, which closes the connection before the
+     *                     piece is counted, or an I/O error occurs during the message handling process.
      */
-    public static void handleHaveMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, byte[] receivedMessage) throws IOException {
+    public static void handleHaveMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, int index) throws IOException {
+        if (index < 0 || index >= peerConfiguration.getChunks().getNumberOfPieces()) {
+            throw new IOException(String.format(DisplayConstants.INVALID_HAVE_MESSAGE, index, peerConnection.getPeerProcessId()));
+        }
         Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
-        int index = ByteBuffer.wrap(receivedMessage).getInt();
 
-        int [] bitfield = peerIdToDataMap.get(peerConnection.getPeerProcessId()).getBitfield();
-        bitfield[index] = AppConstants.HAS_BITFIELD;
-        peerIdToDataMap.get(peerConnection.getPeerProcessId()).setBitfield(bitfield);
+        Bitfield bitfield = peerIdToDataMap.get(peerConnection.getPeerProcessId()).getBitfield();
+        boolean isNewPiece = peerConfiguration.getPiecePicker().addPeerPiece(peerConnection.getPeerProcessId(), bitfield, index);
 
-        int bits = (int) Arrays.stream(peerIdToDataMap.get(peerConnection.getPeerProcessId()).getBitfield())
-                .filter(b -> b == AppConstants.HAS_BITFIELD)
-                .count();
-
-        int [] peerDataBitfield = peerData.getBitfield();
-        if(bits == peerDataBitfield.length){
+        if(isNewPiece && bitfield.isComplete()){
             peerIdToDataMap.get(peerConnection.getPeerProcessId()).setHasFile(AppConstants.PEER_HAS_FILE);
-            peerConfiguration.updateFileStatusForPeer();
+            peerConfiguration.updateFileStatusForPeer(peerConnection.getPeerProcessId());
+        }
+
+        // A piece the peer newly holds and this peer lacks may make the peer interesting
+        if (isNewPiece && !peerData.getBitfield().has(index)) {
+            peerConnection.incrementInterestingPieceCount();
+            updateInterestAndSendInterestMessage(peerConfiguration, peerConnection);
         }
-        compareBitfieldAndSendInterestMessage(peerConnection.getConnection(), peerDataBitfield, peerIdToDataMap.get(peerConnection.getPeerProcessId()).getBitfield());
 
-        String message = String.format(DisplayConstants.HAVE_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId(), index );
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        peerConfiguration.getLogHandler().logEvent(LogEvent.HAVE, DisplayConstants.HAVE_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId(), index);
     }
 
     /**
-     * Handles the PIECE message, updates peer data, file chunks, bitfield, and sends requests if unchoked.
+     * Handles a HAVE_BATCH message, announcing several pieces at once, as a HAVE message for each piece.
      *
      * @param peerConfiguration The configuration of the peer.
      * @param peerConnection    The connection information for the peer.
-     * @param receivedMessage   The byte array containing the received PIECE message.
-     * @param totalTime         The total time elapsed for the operation.
-     * @throws IOException If an I/O error occurs during the message handling process.
+     * @param receivedMessage   The byte array containing the received HAVE_BATCH message, a 4-byte index per piece.
+     * @throws IOException If the message does not hold whole indices or holds one outside the file, which closes
+     *                     the connection, or an I/O error occurs during the message handling process.
      */
-    public static void handlePieceMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, byte[] receivedMessage, double totalTime) throws IOException {
-        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
-        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
-        PeerHandler peerHandler = new PeerHandler(peerConfiguration.getPeerProcessId());
-        byte[][] fileChunks = peerConfiguration.getChunks();
+    public static void handleHaveBatchMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, byte[] receivedMessage) throws IOException {
+        if (receivedMessage.length % AppConstants.INT_SIZE_BYTES != 0) {
+            throw new IOException(String.format(DisplayConstants.INVALID_HAVE_BATCH_MESSAGE, receivedMessage.length, peerConnection.getPeerProcessId()));
+        }
+        ByteBuffer indices = ByteBuffer.wrap(receivedMessage);
+        while (indices.remaining() >= AppConstants.INT_SIZE_BYTES) {
+            handleHaveMessage(peerConfiguration, peerConnection, indices.getInt());
+        }
+    }
 
-        Map<Integer, PeerConnection> connectedPeers = peerConfiguration.getPeerProcessIdToConnectionsMap();
-        int index = 0;
-        for (int i = 0; i < AppConstants.INT_SIZE_BYTES; i++) {
-            index = (index << 8) | (receivedMessage[i] & 0xFF);
+    /**
+     * Sends the given peers to every connection in a PEER_EXCHANGE message. Each peer is an entry of its
+     * ID, port, completion status, host length and host, so the message is built once for all connections.
+     *
+     * @param peerConfiguration The configuration of the peer.
+     * @param peers             The peers to be exchanged, with the addresses they accept connections on.
+     * @throws IOException If an I/O error occurs during the message sending process.
+     */
+    public static void broadcastPeerExchange(PeerConfiguration peerConfiguration, List<PeerData> peers) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entryStream = new DataOutputStream(entries);
+        for (PeerData peer : peers) {
+            byte[] host = peer.getHost().getBytes(StandardCharsets.UTF_8);
+            entryStream.writeInt(peer.getPeerProcessId());
+            entryStream.writeInt(peer.getPortNumber());
+            entryStream.writeByte(peer.getHasFile());
+            entryStream.writeShort(host.length);
+            entryStream.write(host);
         }
-        fileChunks[index] = Arrays.copyOfRange(receivedMessage, AppConstants.INT_SIZE_BYTES, receivedMessage.length);
-        int [] bitfield = peerData.getBitfield();
-        bitfield[index] = AppConstants.HAS_BITFIELD;
-        peerData.setBitfield(bitfield);
+        byte[] message = constructMessage(AppConstants.MESSAGE_TYPE_SIZE + entries.size(), MessageType.PEER_EXCHANGE, entries.toByteArray());
 
-        int peerChunkCount = peerData.getChunkCount() + 1;
-        peerData.setChunkCount(peerChunkCount);
-        if(peerChunkCount == peerData.getBitfield().length){
-            peerData.setHasFile(AppConstants.PEER_HAS_FILE);
+        for (PeerConnection peerConnection : peerConfiguration.getPeerProcessIdToConnectionsMap().values()) {
+            sendMessage(peerConnection, message);
         }
+    }
 
-        if(!peerConnection.getIsChoked()){
-            updateBitfieldStatusAndSendRequest(peerConnection.getConnection(), peerData.getBitfield(), peerIdToDataMap.get(peerConnection.getPeerProcessId()).getBitfield());
+    /**
+     * Handles the PEER_EXCHANGE message, merging every peer it lists into the known peers.
+     *
+     * @param peerConfiguration The configuration of the peer.
+     * @param peerConnection    The connection information for the peer.
+     * @param receivedMessage   The entries of the listed peers.
+     */
+    public static void handlePeerExchangeMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, byte[] receivedMessage) {
+        ByteBuffer entries = ByteBuffer.wrap(receivedMessage);
+        while (entries.remaining() >= 2 * AppConstants.INT_SIZE_BYTES + 3) {
+            int peerProcessId = entries.getInt();
+            int portNumber = entries.getInt();
+            int hasFile = entries.get();
+            int hostLength = entries.getShort() & 0xFFFF;
+            if (entries.remaining() < hostLength) {
+                return;
+            }
+            String host = new String(receivedMessage, entries.position(), hostLength, StandardCharsets.UTF_8);
+            entries.position(entries.position() + hostLength);
+
+            if (peerConfiguration.getPeerDiscovery().mergePeer(new PeerData(peerProcessId, host, portNumber, hasFile))) {
+                peerConfiguration.getLogHandler().printMessage(String.format(DisplayConstants.PEER_EXCHANGED_MESSAGE,
+                        peerConfiguration.getPeerProcessId(), peerProcessId, peerConnection.getPeerProcessId()));
+            }
         }
+    }
 
-        calculateDownloadRate(receivedMessage, peerConnection, peerConfiguration, totalTime);
+    /**
+     * Announces a batch of received pieces to every connection. Each peer is sent only the pieces it is
+     * not known to hold, which also skips the peers that supplied them: nothing for none, a HAVE message
+     * for one and a HAVE_BATCH message for several. Once this peer has the complete file, a HAVE_ALL
+     * message goes to every peer instead, so peers that were skipped still learn of the completion.
+     *
+     * @param peerConfiguration The configuration of the peer.
+     * @param pieces            The indices of the received pieces.
+     * @param count             The number of pieces in the batch.
+     * @throws IOException If an I/O error occurs during the message sending process.
+     */
+    public static void broadcastHaveMessages(PeerConfiguration peerConfiguration, int[] pieces, int count) throws IOException {
+        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
+        boolean isComplete = peerIdToDataMap.get(peerConfiguration.getPeerProcessId()).getBitfield().isComplete();
 
-        String message = String.format(DisplayConstants.DOWNLOAD_CHUNK_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId(), index, peerData.getChunkCount());
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        for (Map.Entry<Integer, PeerConnection> connection : peerConfiguration.getPeerProcessIdToConnectionsMap().entrySet()) {
+            if (isComplete) {
+                sendMessage(connection.getValue(), constructMessage(AppConstants.MESSAGE_TYPE_SIZE, MessageType.HAVE_ALL, null));
+                continue;
+            }
 
-        peerHandler.updatePeerFileStatus(peerConfiguration);
-        for(int connection : connectedPeers.keySet()){
-            PeerConnection currConnData = connectedPeers.get(connection);
-            sendMessage(currConnData.getConnection(), constructMessage(AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE, MessageType.HAVE, getByteArrayMessageInt(4, index)));
+            Bitfield connectionBitfield = peerIdToDataMap.get(connection.getKey()).getBitfield();
+            ByteBuffer indices = ByteBuffer.allocate(count * AppConstants.INT_SIZE_BYTES);
+            for (int i = 0; i < count; i++) {
+                if (connectionBitfield == null || !connectionBitfield.has(pieces[i])) {
+                    indices.putInt(pieces[i]);
+                }
+            }
+            if (indices.position() == 0) {
+                continue;
+            }
+            MessageType messageType = indices.position() == AppConstants.INT_SIZE_BYTES ? MessageType.HAVE : MessageType.HAVE_BATCH;
+            sendMessage(connection.getValue(), constructMessage(AppConstants.MESSAGE_TYPE_SIZE + indices.position(), messageType,
+                    Arrays.copyOf(indices.array(), indices.position())));
         }
     }
 
     /**
-     * Calculates the download rate based on the received message size and total time elapsed.
+     * Creates the reusable receiver for the pieces arriving on a connection, which stores them straight
+     * into the piece store and drops those the peer already holds.
      *
-     * @param receivedMessage   The byte array containing the received message.
-     * @param peerConnection    The connection information for the peer.
      * @param peerConfiguration The configuration of the peer.
-     * @param totalTime         The total time elapsed for the operation.
+     * @param peerConnection    The connection the pieces arrive on, whose download meter counts them.
+     * @return The inbound piece receiver.
      */
-    private static void calculateDownloadRate(byte[] receivedMessage, PeerConnection peerConnection,
-                                              PeerConfiguration peerConfiguration, double totalTime) {
+    public static InboundPiece createInboundPiece(PeerConfiguration peerConfiguration, PeerConnection peerConnection) {
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        return new InboundPiece(peerConfiguration.getChunks(), peerData.getBitfield(), peerConnection.getDownloadMeter());
+    }
 
+    /**
+     * Handles a PIECE message whose piece has been received into the piece store, updates peer data,
+     * the bitfield, and sends requests if unchoked.
+     *
+     * @param peerConfiguration The configuration of the peer.
+     * @param peerConnection    The connection information for the peer.
+     * @param index             The index of the received piece.
+     * @param pieceLength       The length of the received piece.
+     * @throws IOException If an I/O error occurs during the message handling process.
+     */
+    public static void handlePieceMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, int index, int pieceLength) throws IOException {
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
         Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
-        double rate = ((double)(receivedMessage.length + AppConstants.INT_SIZE_BYTES + AppConstants.MESSAGE_TYPE_SIZE) / totalTime);
-        boolean peerHasFile = (peerIdToDataMap.get(peerConnection.getPeerProcessId()).getHasFile() == AppConstants.PEER_HAS_FILE);
-        if(peerHasFile){
-            rate = -1;
+        PeerHandler peerHandler = new PeerHandler(peerConfiguration.getPeerProcessId());
+        PieceStore fileChunks = peerConfiguration.getChunks();
+
+        Map<Integer, PeerConnection> connectedPeers = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        peerConnection.getRequestPipeline().pieceReceived(index, pieceLength);
+
+        // A piece already held, e.g. one still answered after a choke cleared its request, only refills the pipeline
+        if (peerData.getBitfield().has(index)) {
+            if (!peerConnection.getIsChokedByPeer()) {
+                updateBitfieldStatusAndSendRequest(peerConfiguration, peerConnection);
+            }
+            return;
+        }
+
+        // Only the connection whose delivery flips the bit counts the piece and announces it; the piece is
+        // forced to disk by the piece syncer, so a slow fsync never holds up the thread receiving pieces
+        peerConfiguration.getPieceSyncer().commit(index);
+        if (!peerData.getBitfield().set(index)) {
+            return;
+        }
+        peerConfiguration.getPiecePicker().pieceReceived(index);
+
+        if(peerData.getBitfield().isComplete()){
+            peerData.setHasFile(AppConstants.PEER_HAS_FILE);
+        }
+
+        if(!peerConnection.getIsChokedByPeer()){
+            updateBitfieldStatusAndSendRequest(peerConfiguration, peerConnection);
+        }
+
+        peerConfiguration.getLogHandler().logEvent(LogEvent.PIECE, DisplayConstants.DOWNLOAD_CHUNK_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId(), index, peerData.getChunkCount());
+
+        peerHandler.updatePeerFileStatus(peerConfiguration);
+        peerConfiguration.getHaveBroadcaster().announce(index);
+        for(int connection : connectedPeers.keySet()){
+            PeerConnection currConnData = connectedPeers.get(connection);
+
+            // The piece no longer makes the peers holding it interesting
+            Bitfield connectionBitfield = peerIdToDataMap.get(connection).getBitfield();
+            if (connectionBitfield != null && connectionBitfield.has(index)) {
+                currConnData.decrementInterestingPieceCount();
+                updateInterestAndSendInterestMessage(peerConfiguration, currConnData);
+            }
         }
-        peerConnection.setRate(rate);
     }
 
     /**
@@ -468,10 +668,10 @@ public class MessageHandler {
     public static void handleInterestedMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection) {
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
 
-        String message = String.format(DisplayConstants.INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        peerConfiguration.getLogHandler().logEvent(LogEvent.INTERESTED, DisplayConstants.INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
 
         peerConnection.setIsInterested(true);
+        peerConfiguration.getChokeScheduler().onInterested();
     }
 
     /**
@@ -486,12 +686,10 @@ public class MessageHandler {
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
 
         // Log the interested message to the file
-        String interestedMessage = String.format(DisplayConstants.INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(interestedMessage);
+        peerConfiguration.getLogHandler().logEvent(LogEvent.INTERESTED, DisplayConstants.INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
 
-        // Format and log the not interested message to the file
-        String notInterestedMessage = String.format(DisplayConstants.NOT_INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(notInterestedMessage);
+        // Log the not interested message to the file
+        peerConfiguration.getLogHandler().logEvent(LogEvent.NOT_INTERESTED, DisplayConstants.NOT_INTERESTED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
 
         // Set the "isInterested" flag to false in the peer connection
         peerConnection.setIsInterested(false);
@@ -500,7 +698,7 @@ public class MessageHandler {
         if (!peerConnection.getIsChoked()) {
             // Set the "isChoked" flag to true and send a choke message
             peerConnection.setIsChoked(true);
-            sendMessage(peerConnection.getConnection(), constructMessage(1, MessageType.CHOKE, null));
+            sendMessage(peerConnection, constructMessage(1, MessageType.CHOKE, null));
         }
     }
 
@@ -514,12 +712,15 @@ public class MessageHandler {
         // Get the PeerData associated with the current peer's process ID
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
 
-        // Format and log the choked message to the file
-        String message = String.format(DisplayConstants.CHOKED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        // Log the choked message to the file
+        peerConfiguration.getLogHandler().logEvent(LogEvent.CHOKED, DisplayConstants.CHOKED_MESSAGE, peerData.getPeerProcessId(), peerConnection.getPeerProcessId());
 
-        // Set the "isChoked" flag to true in the peer connection
-        peerConnection.setIsChoked(true);
+        // Set the "isChokedByPeer" flag to true in the peer connection, forget the requests in flight
+        // and release their pieces to the other connections, with no refill of the connection under way
+        synchronized (peerConnection) {
+            peerConnection.setIsChokedByPeer(true);
+            peerConfiguration.getPiecePicker().releaseReservations(peerConnection, peerConnection.getRequestPipeline().clear());
+        }
     }
 
     /**
@@ -536,24 +737,17 @@ public class MessageHandler {
         // Get the PeerData associated with the current peer's process ID
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerProcessId);
 
-        // Get the map of peer IDs to PeerData objects
-        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
-
         // Get the process ID of the peer sending the unchoke message
         int peerConnectionProcessId = peerConnection.getPeerProcessId();
 
-        // Set the "isChoked" flag to false in the peer connection
-        peerConnection.setIsChoked(false);
-
-        // Format and log the unchoked message to the file
-        String message = String.format(DisplayConstants.UNCHOKED_MESSAGE, peerData.getPeerProcessId(), peerConnectionProcessId);
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        // Set the "isChokedByPeer" flag to false in the peer connection
+        peerConnection.setIsChokedByPeer(false);
 
-        // Get the bitfield of the peer sending the unchoke message
-        int[] bitfield = peerIdToDataMap.get(peerConnectionProcessId).getBitfield();
+        // Log the unchoked message to the file
+        peerConfiguration.getLogHandler().logEvent(LogEvent.UNCHOKED, DisplayConstants.UNCHOKED_MESSAGE, peerData.getPeerProcessId(), peerConnectionProcessId);
 
-        // Update the bitfield status and send request messages if needed
-        updateBitfieldStatusAndSendRequest(peerConnection.getConnection(), peerData.getBitfield(), bitfield);
+        // Request the rarest pieces the peer holds if needed
+        updateBitfieldStatusAndSendRequest(peerConfiguration, peerConnection);
     }
 
     /**
@@ -561,10 +755,24 @@ public class MessageHandler {
      *
      * @param peerConfiguration The configuration of the current peer.
      * @param peerConnection    The connection to the peer sending the bitfield message.
-     * @param receivedMessage   The received bitfield message as a byte array.
+     * @param receivedMessage   The received bitfield message as a byte array, holding one bit per piece.
      * @throws IOException If an I/O error occurs during message handling.
      */
     public static void handleBitfieldMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, byte[] receivedMessage) throws IOException {
+        // Decode the bitfield for the number of pieces of the file
+        Bitfield bitfield = Bitfield.fromByteArray(receivedMessage, peerConfiguration.getChunks().getNumberOfPieces());
+        handleBitfieldMessage(peerConfiguration, peerConnection, bitfield);
+    }
+
+    /**
+     * Handles the bitfield announced by a peer, whether in a bitfield, HAVE_ALL or HAVE_NONE message.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @param peerConnection    The connection to the peer announcing the bitfield.
+     * @param bitfield          The announced bitfield.
+     * @throws IOException If an I/O error occurs during message handling.
+     */
+    public static void handleBitfieldMessage(PeerConfiguration peerConfiguration, PeerConnection peerConnection, Bitfield bitfield) throws IOException {
         // Get the map of peer IDs to PeerData objects
         Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
 
@@ -577,40 +785,45 @@ public class MessageHandler {
         // Get the PeerData associated with the current peer's process ID
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerProcessId);
 
-        // Calculate the size of the bitfield based on the received message
-        int bitfieldSize = receivedMessage.length / AppConstants.INT_SIZE_BYTES;
+        // Count the peer's pieces towards their availability and set the bitfield in the PeerData associated with the peer
+        Bitfield previousBitfield = peerIdToDataMap.get(peerConnectionProcessId).getBitfield();
+        peerConfiguration.getPiecePicker().setPeerBitfield(peerConnectionProcessId, previousBitfield, bitfield);
+        peerIdToDataMap.get(peerConnectionProcessId).setBitfield(bitfield);
 
-        // Initialize an array to store the bitfield
-        int[] bitfield = new int[bitfieldSize];
+        // Set the "hasFile" status for the peer based on whether the bitfield is complete
+        boolean isComplete = bitfield.isComplete();
+        int hasFile = isComplete ? AppConstants.PEER_HAS_FILE : AppConstants.PEER_HAS_NO_FILE;
+        peerIdToDataMap.get(peerConnectionProcessId).setHasFile(hasFile);
 
-        // Wrap the received message in a ByteBuffer and extract the bitfield values
-        ByteBuffer byteBuffer = ByteBuffer.wrap(receivedMessage);
-        for (int i = 0; i < bitfieldSize; i++) {
-            bitfield[i] = byteBuffer.getInt();
+        // Update the file status for the peer configuration if the peer has just been found to have the complete
+        // file; a HAVE_ALL sent on completion may follow HAVE messages that already completed its bitfield
+        if (isComplete && (previousBitfield == null || !previousBitfield.isComplete())) {
+            peerConfiguration.updateFileStatusForPeer(peerConnectionProcessId);
         }
 
-        // Set the bitfield in the PeerData associated with the peer sending the message
-        peerIdToDataMap.get(peerConnectionProcessId).setBitfield(bitfield);
-
-        // Count the number of '1' bits in the bitfield to determine if the peer has the complete file
-        int bits = (int) Arrays.stream(peerIdToDataMap.get(peerConnectionProcessId).getBitfield())
-                .filter(bit -> bit == AppConstants.HAS_BITFIELD)
-                .count();
-
-        // Get the bitfield of the current peer
-        int[] peerDataBitfield = peerData.getBitfield();
+        // Count the pieces the peer holds that this peer lacks and send an interest message if interest changed
+        peerConnection.setInterestingPieceCount(bitfield.countPiecesMissingFrom(peerData.getBitfield()));
+        updateInterestAndSendInterestMessage(peerConfiguration, peerConnection);
+    }
 
-        // Set the "hasFile" status for the peer based on the comparison of bitfields
-        int hasFile = bits == peerDataBitfield.length ? AppConstants.PEER_HAS_FILE : AppConstants.PEER_HAS_NO_FILE;
-        peerIdToDataMap.get(peerConnectionProcessId).setHasFile(hasFile);
+    /**
+     * Handles the loss of a connection: releases the pieces reserved for it to the other connections,
+     * takes it out of the connections and stops counting the peer's pieces towards their availability,
+     * unless another connection to the peer has replaced it.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @param peerConnection    The connection that was lost.
+     */
+    public static void handleDisconnect(PeerConfiguration peerConfiguration, PeerConnection peerConnection) {
+        PiecePicker piecePicker = peerConfiguration.getPiecePicker();
+        piecePicker.releaseReservations(peerConnection, peerConnection.getRequestPipeline().clear());
 
-        // Update the file status for the peer configuration if the peer has the complete file
-        if (bits == peerDataBitfield.length) {
-            peerConfiguration.updateFileStatusForPeer();
+        // A connection replaced by another one to the same peer leaves the peer's pieces counted
+        if (!peerConfiguration.getPeerProcessIdToConnectionsMap().remove(peerConnection.getPeerProcessId(), peerConnection)) {
+            return;
         }
-
-        // Compare bitfields and send an interest message if needed
-        compareBitfieldAndSendInterestMessage(peerConnection.getConnection(), peerDataBitfield, bitfield);
+        PeerData connectionPeerData = peerConfiguration.getPeerIdToDataMap().get(peerConnection.getPeerProcessId());
+        piecePicker.removePeer(peerConnection.getPeerProcessId(), connectionPeerData.getBitfield());
     }
 
     /**
@@ -620,6 +833,32 @@ public class MessageHandler {
         exit(0);
     }
 
+    /**
+     * Exits once every peer has the file, as an EXIT message tells. With connections limited, some peers
+     * are connected to neither this peer nor the one that sent the message, so the EXIT message is passed
+     * on to every connection first and the program terminates after the hold period, flooding the partial
+     * mesh; otherwise the program terminates at once. Peers learned of while running may still join, so
+     * the exit is never passed on then. The hold runs on a thread of the connection thread factory, a
+     * virtual one in the virtual connection mode, while the choke scheduler keeps the process alive.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @throws IOException If an I/O error occurs while passing the exit message on.
+     */
+    public static void handleExitMessage(PeerConfiguration peerConfiguration) throws IOException {
+        if (!peerConfiguration.isPartialMesh() || peerConfiguration.isMembershipDynamic()) {
+            handleExitMessage();
+            return;
+        }
+        if (!peerConfiguration.startExit()) {
+            return;
+        }
+        notifyAllConnectionsOfExit(peerConfiguration);
+        peerConfiguration.getConnectionThreadFactory().newThread(() -> {
+            PeerHandler.peerHold(AppConstants.MESSAGE_HOLD_PERIOD);
+            handleExitMessage();
+        }).start();
+    }
+
     /**
      * Sets up the handshake and establishes a connection with a peer.
      *
@@ -629,23 +868,134 @@ public class MessageHandler {
      * @param byteMessage        The handshake message as a byte array.
      * @param connPeerProcessId  The process ID of the connected peer.
      * @param peerId             The process ID of the current peer.
+     * @param isOutbound         True if the current peer dialed the connection, false if it accepted it.
      */
     public static void setHandshakeAndConnection(Socket connection, PeerConfiguration peerConfiguration, String message,
-                                                 byte[] byteMessage, int connPeerProcessId, int peerId) {
-        // Get the map of peer process IDs to PeerConnection objects
-        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+                                                 byte[] byteMessage, int connPeerProcessId, int peerId, boolean isOutbound) {
+        // Create a new PeerConnection with the established Socket connection and peer ID, measuring its
+        // throughput over the unchoking interval
+        int throughputWindowSamples = (int) (peerConfiguration.getUnchokingInterval() * AppConstants.DELAY / AppConstants.THROUGHPUT_SAMPLE_INTERVAL);
+        PeerConnection peerConnection = new PeerConnection(connection, peerId, isOutbound, throughputWindowSamples);
+
+        // Queue the bitfield before the connection is registered, so it goes out ahead of any HAVE message
+        // broadcast to the registered connections, as the peer counts HAVE messages against it
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        peerConnection.enqueueOutboundMessage(new OutboundMessage(new MessageHandler().constructBitfieldMessage(peerData.getBitfield())));
+
+        // Add the PeerConnection to the map of peer process IDs to connections, unless the connection
+        // already there is the one both peers keep
+        if (!registerConnection(peerConfiguration, connPeerProcessId, peerConnection)) {
+            turnAwayConnection(peerConfiguration, connection);
+            return;
+        }
 
         // Log the handshake message to the file
-        peerConfiguration.getLogHandler().printMessageAndLogMessageToFile(message);
+        peerConfiguration.getLogHandler().logEvent(LogEvent.CONNECTION, message);
+
+        // Hand the connection to the event loop in non-blocking mode, otherwise start a new Message thread and
+        // a MessageWriter thread (platform or virtual, depending on the connection mode) to handle communication
+        // with the connected peer
+        MessageEventLoop messageEventLoop = peerConfiguration.getMessageEventLoop();
+        if (messageEventLoop != null) {
+            try {
+                messageEventLoop.register(peerConnection);
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+        } else {
+            peerConfiguration.getConnectionThreadFactory().newThread(new MessageWriter(peerConnection)).start();
+            peerConfiguration.getConnectionThreadFactory().newThread(new Message(peerConnection, peerConfiguration)).start();
+        }
+    }
 
-        // Create a new PeerConnection with the established Socket connection and peer ID
-        PeerConnection peerConnection = new PeerConnection(connection, peerId);
+    /**
+     * Closes a connection that was not registered. With connections limited, a peer turned away may be
+     * connected to none of the peers that know every peer has the file, so once this peer knows it, the
+     * connection is sent an EXIT message first, which the peer passes on, and is closed after the hold
+     * period, letting the message through.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @param connection        The Socket connection to the peer.
+     */
+    private static void turnAwayConnection(PeerConfiguration peerConfiguration, Socket connection) {
+        if (peerConfiguration.isPartialMesh() && !peerConfiguration.isMembershipDynamic() && peerConfiguration.isSwarmComplete()) {
+            try {
+                connection.getOutputStream().write(constructMessage(1, MessageType.EXIT, null));
+                connection.shutdownOutput();
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+            peerConfiguration.getConnectionThreadFactory().newThread(() -> {
+                PeerHandler.peerHold(AppConstants.MESSAGE_HOLD_PERIOD);
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Ignoring the exception without taking any specific action
+                }
+            }).start();
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Ignoring the exception without taking any specific action
+        }
+    }
 
-        // Add the PeerConnection to the map of peer process IDs to connections
-        peerIdToConnectionsMap.put(connPeerProcessId, peerConnection);
+    /**
+     * Registers a connection whose handshake has completed, keeping a single connection per peer. When two
+     * peers dial each other at once, each of them ends up with both connections, in either order; both keep
+     * the one dialed by the lower peer ID, so they agree on it, and the other one is shut down. A closed
+     * connection is always replaced. With connections limited, a new peer is turned away at the limit.
+     * Registrations are serialized, so the limit holds with connections accepted and dialed at once.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @param connPeerProcessId The process ID of the connected peer.
+     * @param peerConnection    The connection to register.
+     * @return True if the connection was registered, false if the connection already registered is kept instead.
+     */
+    private static boolean registerConnection(PeerConfiguration peerConfiguration, int connPeerProcessId, PeerConnection peerConnection) {
+        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        // Connections are taken out of the map without the lock, which only frees room
+        synchronized (peerIdToConnectionsMap) {
+            while (true) {
+                // A peer at its connection limit takes no connection to a peer it is not connected to yet
+                if (peerConfiguration.isPartialMesh() && !peerIdToConnectionsMap.containsKey(connPeerProcessId)
+                        && peerIdToConnectionsMap.size() >= peerConfiguration.getMaxConnections()) {
+                    return false;
+                }
+                PeerConnection registeredConnection = peerIdToConnectionsMap.putIfAbsent(connPeerProcessId, peerConnection);
+                if (registeredConnection == null) {
+                    peerConfiguration.setPeerUnreachable(connPeerProcessId, false);
+                    return true;
+                }
+                boolean isRegisteredConnectionKept = !registeredConnection.getConnection().isClosed()
+                        && (isDialedByLowerPeer(peerConfiguration, registeredConnection) || !isDialedByLowerPeer(peerConfiguration, peerConnection));
+                if (isRegisteredConnectionKept) {
+                    return false;
+                }
+                if (peerIdToConnectionsMap.replace(connPeerProcessId, registeredConnection, peerConnection)) {
+                    peerConfiguration.setPeerUnreachable(connPeerProcessId, false);
+                    try {
+                        registeredConnection.shutdownInput();
+                    } catch (IOException e) {
+                        // Ignoring the exception without taking any specific action
+                    }
+                    return true;
+                }
+            }
+        }
+    }
 
-        // Start a new Message thread to handle communication with the connected peer
-        new Message(peerConnection, peerConfiguration).start();
+    /**
+     * Checks whether the connection was dialed by the lower of the IDs of the current peer and the connected peer.
+     *
+     * @param peerConfiguration The configuration of the current peer.
+     * @param peerConnection    The connection to the peer.
+     * @return True if the peer with the lower ID dialed the connection, false otherwise.
+     */
+    private static boolean isDialedByLowerPeer(PeerConfiguration peerConfiguration, PeerConnection peerConnection) {
+        return peerConnection.getIsOutbound() == (peerConfiguration.getPeerProcessId() < peerConnection.getPeerProcessId());
     }
 
     /**
@@ -660,7 +1010,7 @@ public class MessageHandler {
 
         // Iterate through all active connections and send exit messages
         for (PeerConnection currConnection : peerProcessIdToConnectionsMap.values()) {
-            sendMessage(currConnection.getConnection(), constructMessage(1, MessageType.EXIT, null));
+            sendMessage(currConnection, constructMessage(1, MessageType.EXIT, null));
         }
     }
 }
@@ -14,6 +14,10 @@ public enum MessageType {
     REQUEST,
     PIECE,
     DONE,
+    HAVE_ALL,
+    HAVE_NONE,
+    HAVE_BATCH,
+    PEER_EXCHANGE,
     UNKNOWN;
 
     /**
@@ -44,6 +48,14 @@ public enum MessageType {
                 return PIECE;
             case '9':
                 return DONE;
+            case 'A':
+                return HAVE_ALL;
+            case 'B':
+                return HAVE_NONE;
+            case 'C':
+                return HAVE_BATCH;
+            case 'D':
+                return PEER_EXCHANGE;
             default:
                 return UNKNOWN;
         }
@@ -77,6 +89,14 @@ public enum MessageType {
                 return (byte) '8';
             case DONE:
                 return (byte) '9';
+            case HAVE_ALL:
+                return (byte) 'A';
+            case HAVE_NONE:
+                return (byte) 'B';
+            case HAVE_BATCH:
+                return (byte) 'C';
+            case PEER_EXCHANGE:
+                return (byte) 'D';
         }
         return 0;
     }
@@ -0,0 +1,61 @@
+package main.java.message;
+
+import main.java.constants.DisplayConstants;
+import main.java.peer.PeerConnection;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class: MessageWriter
+ * Description: The single writer of a connection in blocking modes. Messages sent to the connection from
+ *              any thread are queued on it, and this loop writes them out in order of priority, so
+ *              senders never block on the socket and messages from different threads never interleave.
+ *              Runs on a platform or virtual thread created by the connection thread factory.
+ * Implements: Runnable
+ */
+public class MessageWriter implements Runnable {
+
+    private final PeerConnection peerConnection;
+
+    /**
+     * Constructor: MessageWriter
+     * Parameters:
+     *   - peerConnection: Connection to a peer
+     * Description: Initializes MessageWriter with the provided PeerConnection.
+     */
+    public MessageWriter(PeerConnection peerConnection) {
+        this.peerConnection = peerConnection;
+    }
+
+    /**
+     * Method: run
+     * Description: Implements the run method of Runnable. Parks until messages are queued and writes them
+     *              to the blocking channel of the connection. If a write fails, or writing a message
+     *              throws at all, the connection is closed, which ends its Message loop and hands its
+     *              reserved pieces back, rather than leaving it registered with no writer.
+     */
+    @Override
+    public void run() {
+        SocketChannel channel = peerConnection.getConnection().getChannel();
+        peerConnection.setWriterThread(Thread.currentThread());
+        try {
+            while (channel.isOpen()) {
+                if (!peerConnection.hasOutboundMessages()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                if (!peerConnection.writeOutboundMessages(channel)) {
+                    throw new IOException(String.format(DisplayConstants.INCOMPLETE_WRITE_MESSAGE, peerConnection.getPeerProcessId()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                channel.close();
+            } catch (IOException closeException) {
+                // Ignoring the exception without taking any specific action
+            }
+        }
+    }
+}
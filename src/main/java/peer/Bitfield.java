@@ -0,0 +1,207 @@
+package main.java.peer;
+
+import main.java.constants.DisplayConstants;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Bitfield records which pieces of the file a peer holds, packed one bit per piece into 64-bit words.
+ * Bits are set with compare-and-set, so connections marking different pieces of the same word
+ * concurrently never lose each other's updates. The number of pieces held is counted as bits flip,
+ * so piece counts and completion checks never rescan the words.
+ */
+public class Bitfield {
+    private static final int WORD_SHIFT = 6;          // log2 of the number of bits in a word
+    private static final int BITS_PER_WORD = 1 << WORD_SHIFT;
+
+    private final int numberOfPieces;                 // Number of pieces the bitfield covers
+    private final AtomicLongArray words;              // Piece bits, piece i at bit (i % 64) of word i / 64
+    private final AtomicInteger pieceCount;           // Number of bits set
+
+    // Constructor, with no pieces set
+    public Bitfield(int numberOfPieces) {
+        this.numberOfPieces = numberOfPieces;
+        this.words = new AtomicLongArray((numberOfPieces + BITS_PER_WORD - 1) >>> WORD_SHIFT);
+        this.pieceCount = new AtomicInteger(0);
+    }
+
+    /**
+     * Creates a bitfield with every piece set.
+     *
+     * @param numberOfPieces The number of pieces the bitfield covers.
+     * @return The complete bitfield.
+     */
+    public static Bitfield complete(int numberOfPieces) {
+        Bitfield bitfield = new Bitfield(numberOfPieces);
+        for (int word = 0; word < bitfield.words.length(); word++) {
+            bitfield.words.set(word, bitfield.getWordMask(word));
+        }
+        bitfield.pieceCount.set(numberOfPieces);
+        return bitfield;
+    }
+
+    /**
+     * Decodes the payload of a BITFIELD message, where the first byte holds pieces 0 - 7 from high bit
+     * to low bit, the next byte pieces 8 - 15, and so on.
+     *
+     * @param payload        The payload of the message.
+     * @param numberOfPieces The number of pieces the bitfield covers.
+     * @return The decoded bitfield; spare bits past the last piece are ignored.
+     */
+    public static Bitfield fromByteArray(byte[] payload, int numberOfPieces) {
+        Bitfield bitfield = new Bitfield(numberOfPieces);
+        int numberOfBytes = Math.min(payload.length, (numberOfPieces + Byte.SIZE - 1) / Byte.SIZE);
+        for (int byteIndex = 0; byteIndex < numberOfBytes; byteIndex++) {
+            int bits = payload[byteIndex] & 0xFF;
+            for (int bit = 0; bit < Byte.SIZE && bits != 0; bit++) {
+                if ((bits & (0x80 >>> bit)) != 0 && byteIndex * Byte.SIZE + bit < numberOfPieces) {
+                    bitfield.set(byteIndex * Byte.SIZE + bit);
+                }
+            }
+        }
+        return bitfield;
+    }
+
+    /**
+     * Encodes the bitfield as the payload of a BITFIELD message, one bit per piece, high bit first.
+     *
+     * @return The encoded bitfield, with spare bits at the end set to zero.
+     */
+    public byte[] toByteArray() {
+        byte[] payload = new byte[(numberOfPieces + Byte.SIZE - 1) / Byte.SIZE];
+        for (int word = 0; word < words.length(); word++) {
+            long bits = words.get(word);
+            while (bits != 0) {
+                int piece = (word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+                payload[piece / Byte.SIZE] |= (byte) (0x80 >>> (piece % Byte.SIZE));
+                bits &= bits - 1;
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Checks whether a piece is set.
+     *
+     * @param piece The index of the piece.
+     * @return True if the piece is held.
+     */
+    public boolean has(int piece) {
+        return (words.get(piece >>> WORD_SHIFT) & (1L << piece)) != 0;
+    }
+
+    /**
+     * Sets a piece. An index outside the file would land in the spare bits of the last word, or past the
+     * words, and throw the piece count off, so it is rejected; a peer announcing one breaks the protocol,
+     * and the exception closes its connection.
+     *
+     * @param piece The index of the piece.
+     * @return True if the piece was not set before.
+     * @throws IndexOutOfBoundsException If the index is not that of a piece of the file.
+     */
+    public boolean set(int piece) {
+        if (piece < 0 || piece >= numberOfPieces) {
+            throw new IndexOutOfBoundsException(String.format(DisplayConstants.INVALID_PIECE_INDEX_MESSAGE, piece, numberOfPieces));
+        }
+        int word = piece >>> WORD_SHIFT;
+        long mask = 1L << piece;
+        long bits;
+        do {
+            bits = words.get(word);
+            if ((bits & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(word, bits, bits | mask));
+        pieceCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Finds the first piece set at or after the given index.
+     *
+     * @param fromPiece The index to start searching from.
+     * @return The index of the next piece held, or -1 if there is none.
+     */
+    public int nextSetBit(int fromPiece) {
+        int word = fromPiece >>> WORD_SHIFT;
+        if (fromPiece >= numberOfPieces) {
+            return -1;
+        }
+        long bits = words.get(word) & (-1L << fromPiece);
+        while (true) {
+            if (bits != 0) {
+                return (word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == words.length()) {
+                return -1;
+            }
+            bits = words.get(word);
+        }
+    }
+
+    /**
+     * Counts the pieces set.
+     *
+     * @return The number of pieces held.
+     */
+    public int cardinality() {
+        return pieceCount.get();
+    }
+
+    /**
+     * Counts the pieces not set.
+     *
+     * @return The number of pieces still missing.
+     */
+    public int getMissingCount() {
+        return numberOfPieces - pieceCount.get();
+    }
+
+    /**
+     * Checks whether every piece is set.
+     *
+     * @return True if all pieces are held.
+     */
+    public boolean isComplete() {
+        return pieceCount.get() == numberOfPieces;
+    }
+
+    /**
+     * Checks whether no piece is set.
+     *
+     * @return True if no pieces are held.
+     */
+    public boolean isEmpty() {
+        return pieceCount.get() == 0;
+    }
+
+    /**
+     * Counts the pieces this bitfield holds that the other bitfield lacks.
+     *
+     * @param other The bitfield to compare against.
+     * @return The number of pieces set here and not in the other bitfield.
+     */
+    public int countPiecesMissingFrom(Bitfield other) {
+        int count = 0;
+        for (int word = 0; word < words.length(); word++) {
+            count += Long.bitCount(words.get(word) & ~other.words.get(word));
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of pieces the bitfield covers.
+     *
+     * @return The number of pieces.
+     */
+    public int length() {
+        return numberOfPieces;
+    }
+
+    // Mask of the bits of a word that correspond to pieces, i.e. all but the spare bits of the last word
+    private long getWordMask(int word) {
+        int piecesInWord = Math.min(BITS_PER_WORD, numberOfPieces - (word << WORD_SHIFT));
+        return piecesInWord == BITS_PER_WORD ? -1L : (1L << piecesInWord) - 1;
+    }
+}
@@ -0,0 +1,133 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.message.MessageHandler;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ChokeScheduler {
+    private final PeerConfiguration peerConfiguration;
+    private final ScheduledExecutorService scheduler;                   // Single thread running every round
+    private final ChokeUnchokeHandler chokeUnchokeHandler;
+    private final OptimisticUnchokeHandler optimisticUnchokeHandler;
+    private final ThroughputSampler throughputSampler;
+    private final RequestTimeoutHandler requestTimeoutHandler;
+    private ScheduledFuture<?> chokeUnchokeRounds;                      // Periodic preferred neighbor rounds
+    private ScheduledFuture<?> optimisticUnchokeRounds;                 // Periodic optimistic unchoke rounds
+    private boolean isExitScheduled;
+
+    /*
+     * Constructor: ChokeScheduler
+     * Initializes ChokeScheduler with the provided PeerConfiguration.
+     */
+    public ChokeScheduler(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.chokeUnchokeHandler = new ChokeUnchokeHandler(peerConfiguration);
+        this.optimisticUnchokeHandler = new OptimisticUnchokeHandler(peerConfiguration);
+        this.throughputSampler = new ThroughputSampler(peerConfiguration);
+        this.requestTimeoutHandler = new RequestTimeoutHandler(peerConfiguration);
+    }
+
+    /*
+     * Starts the rounds: preferred neighbors are chosen every unchoking interval, an optimistically
+     * unchoked neighbor every optimistic unchoking interval, the throughput meters are sampled every
+     * sample interval, and timed-out requests are given up every request timeout check interval. With
+     * peer exchange enabled or connections limited, known peers are exchanged with the neighbors every
+     * peer exchange interval, and with connections limited, neighbors are rotated every neighbor rotation
+     * interval.
+     * Between rounds the scheduler thread sleeps, so an idle peer uses no CPU.
+     */
+    public synchronized void start() {
+        chokeUnchokeRounds = scheduleRounds(this::runChokeUnchokeRound, peerConfiguration.getUnchokingInterval());
+        optimisticUnchokeRounds = scheduleRounds(optimisticUnchokeHandler, peerConfiguration.getOptimisticUnchokingInterval());
+        scheduler.scheduleAtFixedRate(() -> runRound(throughputSampler), AppConstants.THROUGHPUT_SAMPLE_INTERVAL,
+                AppConstants.THROUGHPUT_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> runRound(requestTimeoutHandler), AppConstants.REQUEST_TIMEOUT_CHECK_INTERVAL,
+                AppConstants.REQUEST_TIMEOUT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        // With connections limited, the exchange also spreads the completion of peers never connected to
+        if (peerConfiguration.isPeerExchangeEnabled() || peerConfiguration.isPartialMesh()) {
+            PeerExchangeHandler peerExchangeHandler = new PeerExchangeHandler(peerConfiguration);
+            scheduler.scheduleAtFixedRate(() -> runRound(peerExchangeHandler), AppConstants.PEER_EXCHANGE_INTERVAL,
+                    AppConstants.PEER_EXCHANGE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        if (peerConfiguration.isPartialMesh()) {
+            NeighborManager neighborManager = new NeighborManager(peerConfiguration);
+            scheduler.scheduleWithFixedDelay(() -> runRound(neighborManager), 0,
+                    AppConstants.NEIGHBOR_ROTATION_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Called when a peer becomes interested. A round that found no interested peer is brought forward to
+     * now, so the peer is not left waiting for the rest of the interval; the rounds then continue on
+     * their interval from here.
+     */
+    public synchronized void onInterested() {
+        if (chokeUnchokeRounds == null) {
+            return;
+        }
+        if (chokeUnchokeHandler.isIdle() && chokeUnchokeRounds.cancel(false)) {
+            chokeUnchokeRounds = scheduleRounds(this::runChokeUnchokeRound, peerConfiguration.getUnchokingInterval());
+        }
+        if (optimisticUnchokeHandler.isIdle() && optimisticUnchokeRounds.cancel(false)) {
+            optimisticUnchokeRounds = scheduleRounds(optimisticUnchokeHandler, peerConfiguration.getOptimisticUnchokingInterval());
+        }
+    }
+
+    // Schedules a round now and then once every interval, given in seconds
+    private ScheduledFuture<?> scheduleRounds(Runnable round, int interval) {
+        long intervalMillis = interval * AppConstants.DELAY;
+        return scheduler.scheduleAtFixedRate(() -> runRound(round), 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs a round; a round failing because a connection went away meanwhile is left to the next round,
+    // since a periodic task that throws is never run again
+    private static void runRound(Runnable round) {
+        try {
+            round.run();
+        } catch (RuntimeException e) {
+            // Ignoring the exception without taking any specific action
+        }
+    }
+
+    /*
+     * Runs a preferred neighbor round, or once every peer has the file, schedules the exit after a final
+     * delay that lets the last messages go out. With peers learned of while running, or connections
+     * limited, the delay spans a tracker announce and a peer exchange, which passes the completion on to
+     * the neighbors, and the peer exits only if no peer it has learned of meanwhile still needs pieces.
+     */
+    private void runChokeUnchokeRound() {
+        if (!peerConfiguration.isSwarmComplete()) {
+            chokeUnchokeHandler.run();
+            return;
+        }
+        synchronized (this) {
+            if (!isExitScheduled) {
+                isExitScheduled = true;
+                long exitDelay = 5 * AppConstants.DELAY + (peerConfiguration.isExitDeferred()
+                        ? Math.max(AppConstants.TRACKER_ANNOUNCE_INTERVAL, AppConstants.PEER_EXCHANGE_INTERVAL) : 0);
+                scheduler.schedule(this::exitIfSwarmComplete, exitDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Stops the rounds and exits, unless a peer learned of since the exit was scheduled still needs pieces;
+    // with connections limited, the neighbors are told first, so peers that never learned every completion exit too
+    private synchronized void exitIfSwarmComplete() {
+        isExitScheduled = false;
+        if (peerConfiguration.isSwarmComplete()) {
+            chokeUnchokeRounds.cancel(false);
+            optimisticUnchokeRounds.cancel(false);
+            try {
+                MessageHandler.handleExitMessage(peerConfiguration);
+            } catch (IOException e) {
+                MessageHandler.handleExitMessage();
+            }
+        }
+    }
+}
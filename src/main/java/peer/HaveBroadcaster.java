@@ -0,0 +1,67 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.message.MessageHandler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+public class HaveBroadcaster extends Thread {
+    private final PeerConfiguration peerConfiguration;
+    private final Queue<Integer> announcedPieces;   // Pieces received since the last broadcast
+    private int[] pieces;                           // Pieces of the batch being broadcast, reused across batches
+
+    /*
+     * Constructor: HaveBroadcaster
+     * Initializes HaveBroadcaster with the provided PeerConfiguration.
+     */
+    public HaveBroadcaster(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        this.announcedPieces = new ConcurrentLinkedQueue<>();
+        this.pieces = new int[AppConstants.INITIAL_HAVE_BATCH_SIZE];
+        setDaemon(true);
+    }
+
+    /*
+     * Queues a received piece to be announced to the connected peers with the next batch.
+     */
+    public void announce(int pieceIndex) {
+        announcedPieces.add(pieceIndex);
+        LockSupport.unpark(this);
+    }
+
+    /*
+     * Overridden run() method from Thread class.
+     * Waits for a received piece, holds for the batch window so the pieces arriving meanwhile join it,
+     * then announces the whole batch to every connection, off the threads receiving the pieces.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            if (announcedPieces.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            // Delay for the batch window, then take every piece announced so far
+            PeerHandler.peerHold(AppConstants.HAVE_BATCH_WINDOW);
+            int count = 0;
+            Integer pieceIndex;
+            while ((pieceIndex = announcedPieces.poll()) != null) {
+                if (count == pieces.length) {
+                    pieces = Arrays.copyOf(pieces, count * 2);
+                }
+                pieces[count++] = pieceIndex;
+            }
+
+            try {
+                MessageHandler.broadcastHaveMessages(peerConfiguration, pieces, count);
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+        }
+    }
+}
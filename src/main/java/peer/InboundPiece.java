@@ -0,0 +1,110 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.constants.DisplayConstants;
+import main.java.storage.PieceStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * InboundPiece is the piece of a PIECE message being received on a connection. The piece is transferred
+ * from the socket straight into its place in the piece store, so it is never copied through the heap;
+ * a piece that is already held is read into a small reused buffer and dropped. One instance is reused
+ * for every piece received on the connection.
+ */
+public class InboundPiece {
+    private final PieceStore pieceStore;   // Store the piece is transferred into
+    private final Bitfield bitfield;       // Pieces already held, which are dropped instead of stored
+    private final ThroughputMeter downloadMeter; // Meter counting the bytes received on the connection
+    private int pieceIndex;                // Index of the piece being received
+    private int pieceLength;               // Length of the piece being received
+    private long pieceBytesRead;           // Bytes of the piece received so far
+    private boolean isDiscarded;           // Flag indicating if the piece is already held
+    private ByteBuffer readBuffer;         // Buffer for bytes a transfer cannot take, e.g. of a piece already held
+
+    // Constructor
+    public InboundPiece(PieceStore pieceStore, Bitfield bitfield, ThroughputMeter downloadMeter) {
+        this.pieceStore = pieceStore;
+        this.bitfield = bitfield;
+        this.downloadMeter = downloadMeter;
+    }
+
+    /**
+     * Starts receiving the piece of a PIECE message whose header has been read.
+     *
+     * @param pieceIndex  The index of the piece in the message header.
+     * @param pieceLength The number of bytes following the header.
+     * @throws IOException If the index or the length does not match a piece of the file.
+     */
+    public void start(int pieceIndex, int pieceLength) throws IOException {
+        if (pieceIndex < 0 || pieceIndex >= pieceStore.getNumberOfPieces() || pieceLength != pieceStore.getPieceLength(pieceIndex)) {
+            throw new IOException(String.format(DisplayConstants.INVALID_PIECE_MESSAGE, pieceIndex, pieceLength));
+        }
+        this.pieceIndex = pieceIndex;
+        this.pieceLength = pieceLength;
+        this.pieceBytesRead = 0;
+        this.isDiscarded = bitfield.has(pieceIndex);
+    }
+
+    /**
+     * Reads as much of the piece as the channel provides. A blocking channel provides all of it;
+     * a non-blocking channel may stop short when no more bytes have arrived.
+     *
+     * @param channel The channel of the connection.
+     * @return True if the whole piece has been received, false if part of it remains.
+     * @throws IOException If an I/O error occurs while reading or storing, or the connection is closed.
+     */
+    public boolean readFrom(ReadableByteChannel channel) throws IOException {
+        while (pieceBytesRead < pieceLength) {
+            long read = isDiscarded ? 0 : pieceStore.receivePiece(pieceIndex, pieceBytesRead, pieceLength - pieceBytesRead, channel);
+            if (read == 0) {
+                // A transfer stops short both when no bytes have arrived and at the end of the stream,
+                // so a plain read into the buffer tells the two apart
+                read = readIntoBuffer(channel);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                if (read == 0) {
+                    return false;
+                }
+                if (!isDiscarded) {
+                    readBuffer.flip();
+                    pieceStore.writePiece(pieceIndex, pieceBytesRead, readBuffer);
+                }
+            }
+            pieceBytesRead += read;
+            downloadMeter.record(read);
+        }
+        return true;
+    }
+
+    // Reads the next bytes of the piece into the reused buffer
+    private int readIntoBuffer(ReadableByteChannel channel) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(AppConstants.PIECE_COPY_CHUNK_SIZE);
+        }
+        readBuffer.clear().limit((int) Math.min(readBuffer.capacity(), pieceLength - pieceBytesRead));
+        return channel.read(readBuffer);
+    }
+
+    /**
+     * Gets the index of the piece being received.
+     *
+     * @return The piece index.
+     */
+    public int getPieceIndex() {
+        return pieceIndex;
+    }
+
+    /**
+     * Gets the length of the piece being received.
+     *
+     * @return The piece length.
+     */
+    public int getPieceLength() {
+        return pieceLength;
+    }
+}
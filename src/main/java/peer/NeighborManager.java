@@ -0,0 +1,143 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class NeighborManager implements Runnable {
+    private final PeerConfiguration peerConfiguration;
+    private final Sender sender;                // Sender dialing the chosen neighbors
+    private final Set<Integer> dialingPeers;    // Peers being dialed, counted against the connection limit
+
+    /*
+     * Constructor: NeighborManager
+     * Initializes NeighborManager with the provided PeerConfiguration.
+     */
+    public NeighborManager(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        this.sender = new Sender(peerConfiguration);
+        this.dialingPeers = ConcurrentHashMap.newKeySet();
+    }
+
+    /*
+     * Overridden run() method from Runnable.
+     * Runs one round of neighbor management, scheduled by the ChokeScheduler when connections are limited.
+     * Connections that neither side can get a piece from are rotated out, one a round, to make room for a
+     * better candidate at the connection limit. Free connection slots are then filled with the peers ranked
+     * first by the neighbor selection policy, so every peer keeps a constant number of useful neighbors, and
+     * peers having the file go on to meet the peers whose completion they have not learned yet. Each round
+     * dials a peer once, and a peer that cannot be dialed is given up on only if it was connected to before,
+     * since a peer listed in PeerInfo.cfg may not have started yet.
+     */
+    @Override
+    public void run() {
+        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
+        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        Bitfield bitfield = peerIdToDataMap.get(peerConfiguration.getPeerProcessId()).getBitfield();
+        int maxConnections = peerConfiguration.getMaxConnections();
+        boolean isSwarmComplete = peerConfiguration.isSwarmComplete();
+        List<PeerData> candidates = rankCandidates(bitfield);
+        int freeConnections = maxConnections - peerIdToConnectionsMap.size() - dialingPeers.size();
+
+        // Rotating out a useless neighbor at the limit, when no dial is under way, to make room for a candidate;
+        // one a round, so the peer is never left without neighbors to learn the completion from, and none once
+        // every peer is known to have the file. The reader of a connection closes it and takes it out of the map
+        boolean isRotating = !isSwarmComplete && !candidates.isEmpty() && freeConnections <= 0 && dialingPeers.isEmpty();
+        for (PeerConnection peerConnection : peerIdToConnectionsMap.values()) {
+            PeerData connPeerData = peerIdToDataMap.get(peerConnection.getPeerProcessId());
+            if (isRotating && countPiecesToExchange(bitfield, connPeerData) == 0) {
+                isRotating = false;
+                try {
+                    peerConnection.shutdownInput();
+                } catch (IOException e) {
+                    // Ignoring the exception without taking any specific action
+                }
+            }
+        }
+
+        // Dialing the best candidates into the free connection slots. Slots left over go to peers with nothing
+        // to exchange while some peer is still not known to have the file, so that no peer is left without
+        // neighbors to learn the completion from
+        if (freeConnections <= 0) {
+            return;
+        }
+        if (!isSwarmComplete && candidates.size() < freeConnections) {
+            candidates.addAll(listIdlePeers(bitfield));
+        }
+        for (int candidate = 0; candidate < Math.min(freeConnections, candidates.size()); candidate++) {
+            PeerData connPeerData = candidates.get(candidate);
+            dialingPeers.add(connPeerData.getPeerProcessId());
+            peerConfiguration.getConnectionThreadFactory().newThread(() -> {
+                try {
+                    sender.dialPeerOnce(connPeerData);
+                } finally {
+                    dialingPeers.remove(connPeerData.getPeerProcessId());
+                }
+            }).start();
+        }
+    }
+
+    // Lists the peers worth connecting to that are not connected or being dialed, and whose port is known, best first
+    private List<PeerData> rankCandidates(Bitfield bitfield) {
+        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        int peerProcessId = peerConfiguration.getPeerProcessId();
+
+        List<PeerData> candidates = new ArrayList<>();
+        for (PeerData connPeerData : peerConfiguration.getPeerIdToDataMap().values()) {
+            int connPeerProcessId = connPeerData.getPeerProcessId();
+            if (connPeerProcessId != peerProcessId && connPeerData.getPortNumber() > 0 && !peerIdToConnectionsMap.containsKey(connPeerProcessId)
+                    && !dialingPeers.contains(connPeerProcessId) && !peerConfiguration.isPeerUnreachable(connPeerProcessId)
+                    && countPiecesToExchange(bitfield, connPeerData) != 0) {
+                candidates.add(connPeerData);
+            }
+        }
+
+        // Shuffled first, so the stable sorts below break ties at random
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        switch (peerConfiguration.getNeighborSelection()) {
+            case DISTANCE:
+                candidates.sort(Comparator.comparingInt(connPeerData -> Math.abs(connPeerData.getPeerProcessId() - peerProcessId)));
+                break;
+            case COMPLEMENTARY:
+                candidates.sort(Comparator.comparingInt((PeerData connPeerData) -> countPiecesToExchange(bitfield, connPeerData)).reversed());
+                break;
+            default:
+                break;
+        }
+        return candidates;
+    }
+
+    // Lists the peers with nothing to exchange that are not connected or being dialed, in random order
+    private List<PeerData> listIdlePeers(Bitfield bitfield) {
+        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        List<PeerData> idlePeers = new ArrayList<>();
+        for (PeerData connPeerData : peerConfiguration.getPeerIdToDataMap().values()) {
+            int connPeerProcessId = connPeerData.getPeerProcessId();
+            if (connPeerProcessId != peerConfiguration.getPeerProcessId() && connPeerData.getPortNumber() > 0
+                    && !peerIdToConnectionsMap.containsKey(connPeerProcessId) && !dialingPeers.contains(connPeerProcessId)
+                    && !peerConfiguration.isPeerUnreachable(connPeerProcessId) && countPiecesToExchange(bitfield, connPeerData) == 0) {
+                idlePeers.add(connPeerData);
+            }
+        }
+        Collections.shuffle(idlePeers, ThreadLocalRandom.current());
+        return idlePeers;
+    }
+
+    // Counts the pieces either peer holds and the other lacks, or -1 if the peer has never announced its pieces;
+    // a peer known to have the file, from PeerInfo.cfg or from another peer, is taken to have every piece
+    private static int countPiecesToExchange(Bitfield bitfield, PeerData connPeerData) {
+        Bitfield connBitfield = connPeerData.getBitfield();
+        if (connBitfield == null) {
+            return connPeerData.getHasFile() == AppConstants.PEER_HAS_FILE ? bitfield.getMissingCount() : -1;
+        }
+        return connBitfield.countPiecesMissingFrom(bitfield) + bitfield.countPiecesMissingFrom(connBitfield);
+    }
+}
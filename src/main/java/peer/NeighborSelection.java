@@ -0,0 +1,12 @@
+package main.java.peer;
+
+/**
+ * Enum representing the policies for choosing which peers to connect to when the number of connections
+ * is limited: at random, the peers with the closest IDs first, or the peers with the most pieces to
+ * exchange with this peer first.
+ */
+public enum NeighborSelection {
+    RANDOM,
+    DISTANCE,
+    COMPLEMENTARY
+}
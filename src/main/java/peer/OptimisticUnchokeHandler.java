@@ -1,20 +1,20 @@
 package main.java.peer;
 
-import main.java.constants.AppConstants;
 import main.java.constants.DisplayConstants;
+import main.java.log.LogEvent;
 import main.java.log.LogHandler;
-import main.java.message.MessageHandler;
 import main.java.message.MessageType;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
-public class OptimisticUnchokeHandler extends Thread {
+public class OptimisticUnchokeHandler implements Runnable {
     private final PeerHandler peerHandler;
-    private final MessageHandler messageHandler;
     private final PeerConfiguration peerConfiguration;
+    private PeerConnection optimisticallyUnchokedConnection;    // Connection unchoked by the last round
+    private volatile boolean isIdle;                            // Flag indicating if the last round found no interested peer
 
     /*
      * Constructor: OptimisticUnchokeHandler
@@ -23,51 +23,54 @@ public class OptimisticUnchokeHandler extends Thread {
     public OptimisticUnchokeHandler(PeerConfiguration peerConfiguration) {
         this.peerHandler = new PeerHandler(peerConfiguration.getPeerProcessId());
         this.peerConfiguration = peerConfiguration;
-        this.messageHandler = new MessageHandler();
+        this.isIdle = true;
     }
 
     /*
-     * Overridden run() method from Thread class.
-     * Implements the logic for handling optimistic unchoking of peers.
+     * Returns whether the last round found no interested peer to unchoke.
+     */
+    public boolean isIdle() {
+        return isIdle;
+    }
+
+    /*
+     * Overridden run() method from Runnable.
+     * Runs one round of optimistic unchoking, scheduled by the ChokeScheduler every optimistic unchoking interval.
      */
     @Override
     public void run() {
         // Initialization
-        int optimisticUnChokingInterval = peerConfiguration.getOptimisticUnchokingInterval();
         Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
         PeerData peerData = peerIdToDataMap.get(peerConfiguration.getPeerProcessId());
         Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
         LogHandler logHandler = peerConfiguration.getLogHandler();
 
-        // Main Processing Loop
-        while (peerConfiguration.getNumberOfPeerHavingFile() < peerIdToDataMap.size()) {
-            List<Integer> interestedPeers = peerIdToConnectionsMap.keySet().stream()
-                    .filter(connection -> peerIdToConnectionsMap.get(connection).getIsInterested())
-                    .collect(Collectors.toList());
-
-            // Optimistically unchoke a randomly selected interested peer
-            if (interestedPeers.size() > 0) {
-                int connection = interestedPeers.get(new Random().nextInt(interestedPeers.size()));
-                PeerConnection currConn =  peerIdToConnectionsMap.get(connection);
-                peerHandler.handleSendChokeUnchokeMessage(currConn, MessageType.UNCHOKE, false);
+        // Resetting the optimistic unchoke status set by the previous round
+        if (optimisticallyUnchokedConnection != null) {
+            optimisticallyUnchokedConnection.setIsOptimisticallyUnchoked(false);
+            optimisticallyUnchokedConnection = null;
+        }
 
-                // Set the peer as optimistically unchoked
-                peerIdToConnectionsMap.get(connection).setIsOptimisticallyUnchoked(true);
+        List<Integer> interestedPeers = peerIdToConnectionsMap.keySet().stream()
+                .filter(connection -> peerIdToConnectionsMap.get(connection).getIsInterested())
+                .collect(Collectors.toList());
 
-                // Logging optimistic unchoke message
-                String message = String.format(DisplayConstants.OPTIMISTIC_UNCHOKE_NEIGHBOR_MESSAGE, peerData.getPeerProcessId(), peerIdToConnectionsMap.get(connection).getPeerProcessId());
-                logHandler.printMessageAndLogMessageToFile(message);
+        // Nothing to do until a peer becomes interested, which brings the next round forward
+        isIdle = interestedPeers.isEmpty();
+        if (isIdle) {
+            return;
+        }
 
-                // Delay for the optimistic unchoking interval
-                peerHandler.peerHold(optimisticUnChokingInterval * AppConstants.DELAY);
+        // Optimistically unchoke a randomly selected interested peer
+        int connection = interestedPeers.get(ThreadLocalRandom.current().nextInt(interestedPeers.size()));
+        PeerConnection currConn =  peerIdToConnectionsMap.get(connection);
+        peerHandler.handleSendChokeUnchokeMessage(currConn, MessageType.UNCHOKE, false);
 
-                // Resetting the optimistic unchoke status
-                peerIdToConnectionsMap.get(connection).setIsOptimisticallyUnchoked(false);
-            }
-        }
+        // Set the peer as optimistically unchoked until the next round
+        currConn.setIsOptimisticallyUnchoked(true);
+        optimisticallyUnchokedConnection = currConn;
 
-        // Final delay and handling exit message
-        peerHandler.peerHold(5 * AppConstants.DELAY);
-        messageHandler.handleExitMessage();
+        // Logging optimistic unchoke message
+        logHandler.logEvent(LogEvent.OPTIMISTIC_UNCHOKE, DisplayConstants.OPTIMISTIC_UNCHOKE_NEIGHBOR_MESSAGE, peerData.getPeerProcessId(), currConn.getPeerProcessId());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.storage.PieceStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * OutboundMessage is a message waiting to be written to a connection. Most messages are held in memory
+ * entirely; a PIECE message holds only its header in memory and transfers the piece itself from the
+ * file to the socket, so the piece is never copied through the heap.
+ */
+public class OutboundMessage {
+    private final ByteBuffer header;       // The message, or for a PIECE message its length, type and index
+    private final PieceStore pieceStore;   // Store the piece is transferred from, null for in-memory messages
+    private final int pieceIndex;          // Index of the piece transferred after the header
+    private long pieceBytesWritten;        // Bytes of the piece transferred so far
+    private ByteBuffer copyBuffer;         // Buffer for copying the piece when a transfer cannot wait
+
+    // Constructor for a message held entirely in memory
+    public OutboundMessage(byte[] message) {
+        this(message, null, -1);
+    }
+
+    // Constructor for a PIECE message whose piece follows the header straight from the piece store
+    public OutboundMessage(byte[] header, PieceStore pieceStore, int pieceIndex) {
+        this.header = ByteBuffer.wrap(header);
+        this.pieceStore = pieceStore;
+        this.pieceIndex = pieceIndex;
+    }
+
+    /**
+     * Checks whether the piece of a PIECE message follows the header, rather than the message being held in memory.
+     *
+     * @return True for a PIECE message transferred from the piece store, false otherwise.
+     */
+    public boolean hasPiece() {
+        return pieceStore != null;
+    }
+
+    /**
+     * Gets the number of bytes of the piece written so far, 0 for a message held in memory.
+     *
+     * @return The piece bytes written.
+     */
+    public long getPieceBytesWritten() {
+        return pieceBytesWritten;
+    }
+
+    /**
+     * Copies the rest of a message held in memory into the buffer, so several small messages can be
+     * written together.
+     *
+     * @param target The buffer to copy the message into.
+     * @return True if the message was copied, false if it has a piece or does not fit in the buffer.
+     */
+    public boolean copyTo(ByteBuffer target) {
+        if (pieceStore != null || header.remaining() > target.remaining()) {
+            return false;
+        }
+        target.put(header);
+        return true;
+    }
+
+    /**
+     * Writes as much of the message as the channel takes. A blocking channel takes all of it unless
+     * the piece cannot be read; a non-blocking channel may stop short when its send buffer fills.
+     *
+     * @param channel The channel of the connection.
+     * @return True if the whole message has been written, false if part of it remains.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (header.hasRemaining()) {
+            if (channel.write(header) == 0) {
+                return false;
+            }
+        }
+        if (pieceStore == null) {
+            return true;
+        }
+
+        int pieceLength = pieceStore.getPieceLength(pieceIndex);
+        while (pieceBytesWritten < pieceLength) {
+            long transferred = pieceStore.transferPiece(pieceIndex, pieceBytesWritten, pieceLength - pieceBytesWritten, channel);
+            if (transferred == 0 && channel instanceof SelectableChannel && ((SelectableChannel) channel).isBlocking()) {
+                // A blocking socket used from a virtual thread is non-blocking underneath, and a transfer to it
+                // gives up on a full send buffer instead of waiting; a plain write waits, so copy the piece instead
+                transferred = copyPiece(channel, pieceLength);
+            }
+            if (transferred <= 0) {
+                return false;
+            }
+            pieceBytesWritten += transferred;
+        }
+        return true;
+    }
+
+    // Copies the next chunk of the piece through a buffer, waiting until the blocking channel takes all of it
+    private long copyPiece(WritableByteChannel channel, int pieceLength) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocate(AppConstants.PIECE_COPY_CHUNK_SIZE);
+        }
+        copyBuffer.clear().limit((int) Math.min(copyBuffer.capacity(), pieceLength - pieceBytesWritten));
+        while (copyBuffer.hasRemaining()) {
+            if (pieceStore.readPiece(pieceIndex, pieceBytesWritten + copyBuffer.position(), copyBuffer) < 0) {
+                return 0;
+            }
+        }
+        copyBuffer.flip();
+        while (copyBuffer.hasRemaining()) {
+            channel.write(copyBuffer);
+        }
+        return copyBuffer.limit();
+    }
+}
@@ -1,10 +1,16 @@
 package main.java.peer;
 
 import main.java.log.LogHandler;
+import main.java.message.MessageEventLoop;
+import main.java.storage.PieceStore;
 
 import java.io.File;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Peer Process Configuration Setup
@@ -12,17 +18,33 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class PeerConfiguration {
     private int peerProcessId;
     private Map<Integer, PeerData> peerIdToDataMap;
+    private List<Integer> listedPeerIds;            // Peers of PeerInfo.cfg in the order they are listed and start
     private int numberOfPreferredNeighbors;
     private int unchokingInterval;
     private int optimisticUnchokingInterval;
     private String fileName;
-    private int fileSize;
+    private long fileSize;
     private int chunkSize;
-    private final AtomicInteger numberOfPeerHavingFile;
+    private final Set<Integer> peersHavingFile;
+    private final Set<Integer> unreachablePeers;
+    private final AtomicBoolean isExiting;
     private Map<Integer, PeerConnection> peerIdToConnectionsMap;
     private LogHandler logHandler;
     private File directory;
-    private byte[][] chunks;
+    private PieceStore chunks;
+    private PiecePicker piecePicker;
+    private String connectionMode;
+    private MessageEventLoop messageEventLoop;
+    private ThreadFactory connectionThreadFactory;
+    private HaveBroadcaster haveBroadcaster;
+    private PieceSyncer pieceSyncer;
+    private ChokeScheduler chokeScheduler;
+    private int maxConnections;
+    private NeighborSelection neighborSelection;
+    private String trackerHost;
+    private PeerDiscovery peerDiscovery;
+    private boolean isPeerExchangeEnabled;
+    private int trackerPortNumber;
 
     public int getPeerProcessId() {
         return peerProcessId;
@@ -48,6 +70,14 @@ public class PeerConfiguration {
         this.peerIdToDataMap = peerIdToDataMap;
     }
 
+    public List<Integer> getListedPeerIds() {
+        return listedPeerIds;
+    }
+
+    public void setListedPeerIds(List<Integer> listedPeerIds) {
+        this.listedPeerIds = listedPeerIds;
+    }
+
     public int getNumberOfPreferredNeighbors() {
         return numberOfPreferredNeighbors;
     }
@@ -80,11 +110,11 @@ public class PeerConfiguration {
         this.fileName = fileName;
     }
 
-    public int getFileSize() {
+    public long getFileSize() {
         return fileSize;
     }
 
-    public void setFileSize(int fileSize) {
+    public void setFileSize(long fileSize) {
         this.fileSize = fileSize;
     }
 
@@ -97,18 +127,122 @@ public class PeerConfiguration {
     }
 
     public PeerConfiguration(){
-        numberOfPeerHavingFile = new AtomicInteger(0);
+        peersHavingFile = ConcurrentHashMap.newKeySet();
+        unreachablePeers = ConcurrentHashMap.newKeySet();
+        isExiting = new AtomicBoolean(false);
     }
 
     public int getNumberOfPeerHavingFile(){
-        return numberOfPeerHavingFile.get();
+        return peersHavingFile.size();
+    }
+
+    // Records that the peer has the file; a peer is counted once, however many times it is found to have it
+    public void updateFileStatusForPeer(int peerProcessId){
+        peersHavingFile.add(peerProcessId);
+    }
+
+    // A peer that could not be connected to after every attempt is not waited for, unless it connects later
+    public void setPeerUnreachable(int peerProcessId, boolean isUnreachable) {
+        if (isUnreachable) {
+            unreachablePeers.add(peerProcessId);
+        } else {
+            unreachablePeers.remove(peerProcessId);
+        }
+    }
+
+    public boolean isPeerUnreachable(int peerProcessId) {
+        return unreachablePeers.contains(peerProcessId);
+    }
+
+    // Every peer is known to have the file or cannot be reached, so there is nothing left to exchange.
+    // With peers learned of while running, a peer that knows of no other peer yet keeps waiting for one.
+    public boolean isSwarmComplete() {
+        if (isMembershipDynamic() && peerIdToDataMap.size() < 2) {
+            return false;
+        }
+        int numberOfPeersDone = getNumberOfPeerHavingFile();
+        for (int peerProcessId : unreachablePeers) {
+            if (!peersHavingFile.contains(peerProcessId)) {
+                numberOfPeersDone++;
+            }
+        }
+        return numberOfPeersDone >= peerIdToDataMap.size();
+    }
+
+    // Marks the peer as exiting, returning true only for the first caller, which carries out the exit
+    public boolean startExit() {
+        return isExiting.compareAndSet(false, true);
+    }
+
+    // Adds a peer learned of after startup, returning the peer already known by the ID if there is one
+    public PeerData addPeer(PeerData peerData) {
+        return peerIdToDataMap.putIfAbsent(peerData.getPeerProcessId(), peerData);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    // Connections are limited to fewer than one to every other peer; with peers learned of while running,
+    // the peers are not known up front, so any limit applies
+    public boolean isPartialMesh() {
+        return maxConnections > 0 && (isMembershipDynamic() || maxConnections < peerIdToDataMap.size() - 1);
+    }
+
+    public String getTrackerHost() {
+        return trackerHost;
+    }
+
+    public int getTrackerPortNumber() {
+        return trackerPortNumber;
+    }
+
+    public void setTracker(String trackerHost, int trackerPortNumber) {
+        this.trackerHost = trackerHost;
+        this.trackerPortNumber = trackerPortNumber;
+    }
+
+    public boolean hasTracker() {
+        return trackerHost != null;
+    }
+
+    public boolean isPeerExchangeEnabled() {
+        return isPeerExchangeEnabled;
+    }
+
+    public void setPeerExchangeEnabled(boolean isPeerExchangeEnabled) {
+        this.isPeerExchangeEnabled = isPeerExchangeEnabled;
+    }
+
+    // Peers are learned of while running, from the tracker or from the neighbors, not only from PeerInfo.cfg
+    public boolean isMembershipDynamic() {
+        return hasTracker() || isPeerExchangeEnabled;
     }
 
-    public void updateFileStatusForPeer(){
-        int numberOfPeersHavingFile;
-        do {
-            numberOfPeersHavingFile = getNumberOfPeerHavingFile();
-        } while (!numberOfPeerHavingFile.compareAndSet(numberOfPeersHavingFile, numberOfPeersHavingFile + 1));
+    // The exit is left to the choke scheduler, which waits through a tracker announce or a peer exchange
+    // before exiting, so peers joining meanwhile, or peers a limited connection count keeps apart, are heard of
+    public boolean isExitDeferred() {
+        return isMembershipDynamic() || isPartialMesh();
+    }
+
+    public PeerDiscovery getPeerDiscovery() {
+        return peerDiscovery;
+    }
+
+    public void setPeerDiscovery(PeerDiscovery peerDiscovery) {
+        this.peerDiscovery = peerDiscovery;
+    }
+
+    public NeighborSelection getNeighborSelection() {
+        return neighborSelection;
+    }
+
+    public void setNeighborSelection(NeighborSelection neighborSelection) {
+        this.neighborSelection = neighborSelection;
     }
 
     public Map<Integer, PeerConnection> getPeerProcessIdToConnectionsMap() {
@@ -127,12 +261,68 @@ public class PeerConfiguration {
         this.directory = directory;
     }
 
-    public byte[][] getChunks() {
+    public PieceStore getChunks() {
         return chunks;
     }
 
-    public void setChunks(byte[][] chunks) {
+    public void setChunks(PieceStore chunks) {
         this.chunks = chunks;
     }
 
+    public PiecePicker getPiecePicker() {
+        return piecePicker;
+    }
+
+    public void setPiecePicker(PiecePicker piecePicker) {
+        this.piecePicker = piecePicker;
+    }
+
+    public String getConnectionMode() {
+        return connectionMode;
+    }
+
+    public void setConnectionMode(String connectionMode) {
+        this.connectionMode = connectionMode;
+    }
+
+    public MessageEventLoop getMessageEventLoop() {
+        return messageEventLoop;
+    }
+
+    public void setMessageEventLoop(MessageEventLoop messageEventLoop) {
+        this.messageEventLoop = messageEventLoop;
+    }
+
+    public ThreadFactory getConnectionThreadFactory() {
+        return connectionThreadFactory;
+    }
+
+    public void setConnectionThreadFactory(ThreadFactory connectionThreadFactory) {
+        this.connectionThreadFactory = connectionThreadFactory;
+    }
+
+    public HaveBroadcaster getHaveBroadcaster() {
+        return haveBroadcaster;
+    }
+
+    public void setHaveBroadcaster(HaveBroadcaster haveBroadcaster) {
+        this.haveBroadcaster = haveBroadcaster;
+    }
+
+    public PieceSyncer getPieceSyncer() {
+        return pieceSyncer;
+    }
+
+    public void setPieceSyncer(PieceSyncer pieceSyncer) {
+        this.pieceSyncer = pieceSyncer;
+    }
+
+    public ChokeScheduler getChokeScheduler() {
+        return chokeScheduler;
+    }
+
+    public void setChokeScheduler(ChokeScheduler chokeScheduler) {
+        this.chokeScheduler = chokeScheduler;
+    }
+
 }
@@ -1,46 +1,93 @@
 package main.java.peer;
 
+import main.java.constants.AppConstants;
+
+import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class PeerConnection {
     // Fields
     private final Socket connection;          // The socket representing the connection with the peer
     private boolean isInterested;             // Flag indicating if the peer is interested
-    private boolean isChoked;                 // Flag indicating if the peer is choked
+    private volatile boolean isChoked;        // Flag indicating if the peer is choked
+    private volatile boolean isChokedByPeer;  // Flag indicating if the peer has choked this peer
     private boolean isOptimisticallyUnchoked; // Flag indicating if the peer is optimistically unchoked
-    private double rate;                       // Data transfer rate with the peer
+    private final ThroughputMeter downloadMeter;  // Rate of the pieces received from the peer
+    private final ThroughputMeter uploadMeter;    // Rate of the pieces sent to the peer
     private final int peerProcessId;          // Unique identifier for the peer process
+    private final boolean isOutbound;         // Flag indicating if this peer dialed the connection
+    private final Queue<OutboundMessage> controlMessages;  // Messages held in memory waiting to be written
+    private final Queue<OutboundMessage> pieceMessages;    // PIECE messages waiting to be written after them
+    private OutboundMessage currentMessage;           // Message partially written by the writer
+    private ByteBuffer coalescedMessages;             // Control messages being written together by the writer
+    private volatile Thread writerThread;             // Thread writing the messages in blocking modes
+    private volatile SelectionKey selectionKey;       // Event loop registration, null in thread mode
+    private final RequestPipeline requestPipeline;    // Piece requests in flight to the peer
+    private final AtomicInteger interestingPieceCount; // Pieces the peer holds that this peer lacks
+    private boolean isInterestedInPeer;               // Flag indicating if INTERESTED was last sent to the peer
 
-    // Constructor
-    public PeerConnection(Socket connection, int peerProcessId) {
+    // Constructor, measuring throughput over a window of the given number of samples
+    public PeerConnection(Socket connection, int peerProcessId, boolean isOutbound, int throughputWindowSamples) {
         // Initializing default values
         isChoked = true;
-        rate = 0;
+        isChokedByPeer = true;
+        downloadMeter = new ThroughputMeter(throughputWindowSamples);
+        uploadMeter = new ThroughputMeter(throughputWindowSamples);
+        controlMessages = new ConcurrentLinkedQueue<>();
+        pieceMessages = new ConcurrentLinkedQueue<>();
+        requestPipeline = new RequestPipeline();
+        interestingPieceCount = new AtomicInteger(0);
 
         // Setting provided values
         this.connection = connection;
         this.peerProcessId = peerProcessId;
+        this.isOutbound = isOutbound;
     }
 
     // Getter and Setter methods
 
     /**
-     * Gets the data transfer rate with the peer.
+     * Gets the meter of the rate at which pieces are received from the peer.
+     *
+     * @return The download throughput meter.
+     */
+    public ThroughputMeter getDownloadMeter() {
+        return downloadMeter;
+    }
+
+    /**
+     * Gets the meter of the rate at which pieces are sent to the peer.
      *
-     * @return The data transfer rate.
+     * @return The upload throughput meter.
      */
-    public double getRate() {
-        return rate;
+    public ThroughputMeter getUploadMeter() {
+        return uploadMeter;
     }
 
     /**
-     * Sets the data transfer rate with the peer.
+     * Gets the rate at which pieces were received from the peer over the last unchoking interval.
      *
-     * @param rate The new data transfer rate.
+     * @return The download rate in bytes per second.
      */
-    public void setRate(double rate) {
-        this.rate = rate;
+    public double getDownloadRate() {
+        return downloadMeter.getRate();
+    }
+
+    /**
+     * Gets the rate at which pieces were sent to the peer over the last unchoking interval.
+     *
+     * @return The upload rate in bytes per second.
+     */
+    public double getUploadRate() {
+        return uploadMeter.getRate();
     }
 
     /**
@@ -97,6 +144,24 @@ public class PeerConnection {
         this.isChoked = isChoked;
     }
 
+    /**
+     * Gets whether the peer has choked this peer, i.e. whether requests should be held back.
+     *
+     * @return True if choked by the peer, false otherwise.
+     */
+    public boolean getIsChokedByPeer() {
+        return isChokedByPeer;
+    }
+
+    /**
+     * Sets whether the peer has choked this peer.
+     *
+     * @param isChokedByPeer The new choked-by-peer status.
+     */
+    public void setIsChokedByPeer(boolean isChokedByPeer) {
+        this.isChokedByPeer = isChokedByPeer;
+    }
+
     /**
      * Gets the unique identifier of the peer process.
      *
@@ -106,6 +171,15 @@ public class PeerConnection {
         return peerProcessId;
     }
 
+    /**
+     * Checks whether this peer dialed the connection, or accepted it from the peer.
+     *
+     * @return True if this peer dialed the connection, false if the peer did.
+     */
+    public boolean getIsOutbound() {
+        return isOutbound;
+    }
+
     /**
      * Gets the socket representing the connection with the peer.
      *
@@ -114,4 +188,184 @@ public class PeerConnection {
     public Socket getConnection() {
         return connection;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the pipeline of piece requests in flight to the peer.
+     *
+     * @return The request pipeline.
+     */
+    public RequestPipeline getRequestPipeline() {
+        return requestPipeline;
+    }
+
+    /**
+     * Gets the number of pieces the peer holds that this peer lacks.
+     *
+     * @return The interesting piece count.
+     */
+    public int getInterestingPieceCount() {
+        return interestingPieceCount.get();
+    }
+
+    /**
+     * Sets the number of pieces the peer holds that this peer lacks, e.g. after comparing whole bitfields.
+     *
+     * @param count The new interesting piece count.
+     */
+    public void setInterestingPieceCount(int count) {
+        interestingPieceCount.set(count);
+    }
+
+    /**
+     * Counts one more piece the peer holds that this peer lacks.
+     */
+    public void incrementInterestingPieceCount() {
+        interestingPieceCount.incrementAndGet();
+    }
+
+    /**
+     * Counts one piece less that the peer holds and this peer lacks.
+     */
+    public void decrementInterestingPieceCount() {
+        interestingPieceCount.decrementAndGet();
+    }
+
+    /**
+     * Gets whether INTERESTED, rather than NOT_INTERESTED, was last sent to the peer.
+     *
+     * @return True if this peer has declared interest in the peer, false otherwise.
+     */
+    public boolean getIsInterestedInPeer() {
+        return isInterestedInPeer;
+    }
+
+    /**
+     * Sets whether INTERESTED, rather than NOT_INTERESTED, was last sent to the peer.
+     *
+     * @param isInterestedInPeer The new interested-in-peer status.
+     */
+    public void setIsInterestedInPeer(boolean isInterestedInPeer) {
+        this.isInterestedInPeer = isInterestedInPeer;
+    }
+
+    /**
+     * Sets the event loop registration of the connection.
+     *
+     * @param selectionKey The key of the connection's channel in its I/O thread's Selector.
+     */
+    public void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * Sets the thread that writes the messages of the connection in blocking modes.
+     *
+     * @param writerThread The writer thread, woken whenever a message is queued.
+     */
+    public void setWriterThread(Thread writerThread) {
+        this.writerThread = writerThread;
+    }
+
+    /**
+     * Shuts the connection down for reading. Its reader, the Message thread or the event loop, sees the
+     * end of the stream and closes the connection from its own thread once its reserved pieces are handed back.
+     *
+     * @throws IOException If the connection is already closed.
+     */
+    public void shutdownInput() throws IOException {
+        connection.getChannel().shutdownInput();
+    }
+
+    /**
+     * Closes the connection and wakes the writer thread, if any, to find it closed.
+     *
+     * @throws IOException If an I/O error occurs while closing.
+     */
+    public void close() throws IOException {
+        connection.close();
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Queues a message to be written by the connection's single writer, the writer thread in blocking
+     * modes or the event loop's I/O thread in non-blocking mode, and wakes the writer.
+     *
+     * @param message The message to be written.
+     */
+    public void enqueueOutboundMessage(OutboundMessage message) {
+        (message.hasPiece() ? pieceMessages : controlMessages).add(message);
+        SelectionKey key = selectionKey;
+        if (key != null && key.isValid()) {
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        }
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Checks whether messages are waiting to be written.
+     *
+     * @return True if a message is queued, false otherwise.
+     */
+    public boolean hasOutboundMessages() {
+        return !controlMessages.isEmpty() || !pieceMessages.isEmpty();
+    }
+
+    /**
+     * Writes queued messages to the channel until the queues are empty or the channel cannot take more.
+     * Messages held in memory, such as CHOKE, UNCHOKE and HAVE, go out ahead of queued PIECE messages,
+     * and those queued together are written together in one write. A partially written message is
+     * always finished first, so messages are never interleaved. Only the connection's writer calls this.
+     *
+     * @param channel The channel of the connection.
+     * @return True if the queues were drained, false if a message is only partially written.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    public boolean writeOutboundMessages(SocketChannel channel) throws IOException {
+        if (coalescedMessages == null) {
+            coalescedMessages = ByteBuffer.allocateDirect(AppConstants.COALESCED_MESSAGES_BUFFER_SIZE).flip();
+        }
+        while (true) {
+            if (coalescedMessages.hasRemaining()) {
+                channel.write(coalescedMessages);
+                if (coalescedMessages.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (currentMessage != null) {
+                long pieceBytesWritten = currentMessage.getPieceBytesWritten();
+                boolean isWritten = currentMessage.writeTo(channel);
+                uploadMeter.record(currentMessage.getPieceBytesWritten() - pieceBytesWritten);
+                if (!isWritten) {
+                    return false;
+                }
+                currentMessage = null;
+            }
+
+            // Gather the queued control messages; one too large to be gathered is written on its own
+            if (!controlMessages.isEmpty()) {
+                coalescedMessages.clear();
+                OutboundMessage message;
+                while ((message = controlMessages.peek()) != null && message.copyTo(coalescedMessages)) {
+                    controlMessages.poll();
+                }
+                coalescedMessages.flip();
+                if (!coalescedMessages.hasRemaining()) {
+                    currentMessage = controlMessages.poll();
+                }
+                continue;
+            }
+
+            currentMessage = pieceMessages.poll();
+            if (currentMessage == null) {
+                return true;
+            }
+        }
+    }
+}
@@ -5,11 +5,10 @@ package main.java.peer;
  */
 public class PeerData {
     private final int peerProcessId; // Unique identifier for the peer process
-    private final String host;       // Hostname or IP address of the peer
-    private final int portNumber;    // Port number for communication with the peer
+    private volatile String host;    // Hostname or IP address of the peer
+    private volatile int portNumber; // Port number for communication with the peer, 0 until known
     private int hasFile;              // Flag indicating if the peer has the complete file
-    private int chunkCount = 0;       // Count of chunks held by the peer
-    private int[] bitfield;           // Bitfield representing the availability of chunks
+    private Bitfield bitfield;        // Bitfield representing the availability of chunks
 
     // Constructor
     public PeerData(int peerId, String host, int portNumber, int hasFile) {
@@ -22,21 +21,12 @@ public class PeerData {
     // Getter and Setter methods
 
     /**
-     * Gets the count of chunks held by the peer.
+     * Gets the count of chunks held by the peer, as counted by its bitfield while bits are set.
      *
      * @return The count of chunks.
      */
     public int getChunkCount() {
-        return chunkCount;
-    }
-
-    /**
-     * Sets the count of chunks held by the peer.
-     *
-     * @param chunkCount The new count of chunks.
-     */
-    public void setChunkCount(int chunkCount) {
-        this.chunkCount = chunkCount;
+        return bitfield == null ? 0 : bitfield.cardinality();
     }
 
     /**
@@ -66,6 +56,17 @@ public class PeerData {
         return portNumber;
     }
 
+    /**
+     * Sets the address the peer accepts connections on, once learned from the tracker.
+     *
+     * @param host       The hostname or IP address.
+     * @param portNumber The port number.
+     */
+    public void setAddress(String host, int portNumber) {
+        this.host = host;
+        this.portNumber = portNumber;
+    }
+
     /**
      * Gets the flag indicating if the peer has the complete file.
      *
@@ -87,18 +88,18 @@ public class PeerData {
     /**
      * Gets the bitfield representing the availability of chunks.
      *
-     * @return The bitfield array.
+     * @return The bitfield.
      */
-    public int[] getBitfield() {
+    public Bitfield getBitfield() {
         return bitfield;
     }
 
     /**
      * Sets the bitfield representing the availability of chunks.
      *
-     * @param bitfield The new bitfield array.
+     * @param bitfield The new bitfield.
      */
-    public void setBitfield(int[] bitfield) {
+    public void setBitfield(Bitfield bitfield) {
         this.bitfield = bitfield;
     }
 }
@@ -0,0 +1,69 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+
+/*
+ * PeerDiscovery merges the peers learned of while the peer runs, from the tracker or from the peer lists
+ * its neighbors exchange, into the known peers. Peers learned of are dialed like the peers of PeerInfo.cfg:
+ * by the neighbor rounds when connections are limited, otherwise by the peer with the higher ID, here or
+ * there, so a pair of peers still dials only once.
+ */
+public class PeerDiscovery {
+    private final PeerConfiguration peerConfiguration;
+    private final Sender sender;                // Sender dialing the peers learned of, with every connection wanted
+
+    public PeerDiscovery(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        this.sender = new Sender(peerConfiguration);
+    }
+
+    /**
+     * Merges a listed peer into the known peers. A peer not known yet is added, a peer known only from
+     * connecting to this one gets the address it accepts connections on, and either is dialed if this peer
+     * is the one to dial it. A peer listed with the file is counted as having it, as a peer never loses the
+     * file, so its completion is learned without connecting.
+     *
+     * @param listedPeerData The peer as listed, with the address it accepts connections on.
+     * @return True if the peer was not known before, false otherwise.
+     */
+    public boolean mergePeer(PeerData listedPeerData) {
+        int connPeerProcessId = listedPeerData.getPeerProcessId();
+        if (connPeerProcessId == peerConfiguration.getPeerProcessId()) {
+            return false;
+        }
+        PeerData knownPeerData = peerConfiguration.addPeer(listedPeerData);
+        if (knownPeerData != null) {
+            if (knownPeerData.getPortNumber() <= 0 && listedPeerData.getPortNumber() > 0) {
+                knownPeerData.setAddress(listedPeerData.getHost(), listedPeerData.getPortNumber());
+                dialIfHigher(knownPeerData);
+            }
+            if (listedPeerData.getHasFile() == AppConstants.PEER_HAS_FILE) {
+                knownPeerData.setHasFile(AppConstants.PEER_HAS_FILE);
+                peerConfiguration.updateFileStatusForPeer(connPeerProcessId);
+            }
+            return false;
+        }
+        if (listedPeerData.getHasFile() == AppConstants.PEER_HAS_FILE) {
+            peerConfiguration.updateFileStatusForPeer(connPeerProcessId);
+        }
+
+        dialIfHigher(listedPeerData);
+        return true;
+    }
+
+    /**
+     * Dials a peer whose address is known, if this peer is the one to dial it: without a connection limit,
+     * the peer with the higher ID dials, unless the two are connected already, as a peer known only from
+     * connecting to this one may still be.
+     *
+     * @param connPeerData The peer, with the address it accepts connections on.
+     */
+    private void dialIfHigher(PeerData connPeerData) {
+        int connPeerProcessId = connPeerData.getPeerProcessId();
+        if (!peerConfiguration.isPartialMesh() && connPeerProcessId < peerConfiguration.getPeerProcessId()
+                && connPeerData.getPortNumber() > 0
+                && !peerConfiguration.getPeerProcessIdToConnectionsMap().containsKey(connPeerProcessId)) {
+            peerConfiguration.getConnectionThreadFactory().newThread(() -> sender.dialPeer(connPeerData)).start();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.message.MessageHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class PeerExchangeHandler implements Runnable {
+    private final PeerConfiguration peerConfiguration;
+
+    /*
+     * Constructor: PeerExchangeHandler
+     * Initializes PeerExchangeHandler with the provided PeerConfiguration.
+     */
+    public PeerExchangeHandler(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+    }
+
+    /*
+     * Overridden run() method from Runnable.
+     * Runs one round of peer exchange, scheduled by the ChokeScheduler every peer exchange interval. The
+     * connected peers are sent this peer and up to PEER_EXCHANGE_LIST_SIZE - 1 other known peers picked at
+     * random, with the addresses they accept connections on and whether they have the file. Passed on from
+     * neighbor to neighbor, the peers spread through the swarm from a few entries in PeerInfo.cfg, and so
+     * does the completion of peers a peer never connects to.
+     */
+    @Override
+    public void run() {
+        int peerProcessId = peerConfiguration.getPeerProcessId();
+        List<PeerData> knownPeers = new ArrayList<>();
+        for (PeerData connPeerData : peerConfiguration.getPeerIdToDataMap().values()) {
+            if (connPeerData.getPeerProcessId() != peerProcessId && connPeerData.getPortNumber() > 0) {
+                knownPeers.add(connPeerData);
+            }
+        }
+
+        // Partial shuffle, moving a random pick of the known peers to the front of the list
+        int numberOfPeers = Math.min(knownPeers.size(), AppConstants.PEER_EXCHANGE_LIST_SIZE - 1);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int peer = 0; peer < numberOfPeers; peer++) {
+            Collections.swap(knownPeers, peer, peer + random.nextInt(knownPeers.size() - peer));
+        }
+        List<PeerData> exchangedPeers = new ArrayList<>(knownPeers.subList(0, numberOfPeers));
+        exchangedPeers.add(peerConfiguration.getPeerIdToDataMap().get(peerProcessId));
+
+        try {
+            MessageHandler.broadcastPeerExchange(peerConfiguration, exchangedPeers);
+        } catch (IOException e) {
+            // Ignoring the exception without taking any specific action
+        }
+    }
+}
@@ -1,18 +1,23 @@
 package main.java.peer;
 
 import main.java.constants.DisplayConstants;
+import main.java.log.LogEvent;
 import main.java.log.LogHandler;
+import main.java.log.LogLevel;
+import main.java.message.MessageEventLoop;
 import main.java.message.MessageHandler;
 import main.java.constants.AppConstants;
 import main.java.message.MessageType;
+import main.java.storage.PieceJournal;
+import main.java.storage.PieceStore;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
 /**
  * Class: PeerHandler
  * Description: Manages the setup and execution of peer processes in a peer-to-peer network.
@@ -50,11 +55,20 @@ public class PeerHandler {
         int unchokingInterval = Integer.parseInt(commonConfiguration.getProperty(AppConstants.UNCHOKING_INTERVAL));
         int optimisticUnchokingInterval = Integer.parseInt(commonConfiguration.getProperty(AppConstants.OPTIMISTIC_UNCHOKING));
         String filename = commonConfiguration.getProperty(AppConstants.FILE_NAME);
-        int fileSize = Integer.parseInt(commonConfiguration.getProperty(AppConstants.FILE_SIZE));
+        long fileSize = Long.parseLong(commonConfiguration.getProperty(AppConstants.FILE_SIZE));
         int pieceSize = Integer.parseInt(commonConfiguration.getProperty(AppConstants.PIECE_SIZE));
-
-        Map<Integer, PeerData> peerIdToDataMap = parsePeerConfiguration();
-        peerConfiguration.setPeerIdToDataMap(peerIdToDataMap);
+        String connectionMode = commonConfiguration.getProperty(AppConstants.CONNECTION_MODE, AppConstants.CONNECTION_MODE_THREAD);
+        int maxConnections = Integer.parseInt(commonConfiguration.getProperty(AppConstants.MAX_CONNECTIONS, "0"));
+        NeighborSelection neighborSelection = NeighborSelection.valueOf(commonConfiguration.getProperty(AppConstants.NEIGHBOR_SELECTION, NeighborSelection.RANDOM.name()));
+        String trackerAddress = commonConfiguration.getProperty(AppConstants.TRACKER);
+        boolean isPeerExchangeEnabled = Boolean.parseBoolean(commonConfiguration.getProperty(AppConstants.PEER_EXCHANGE, Boolean.FALSE.toString()));
+        configureLogging(logHandler, commonConfiguration);
+
+        // PeerInfo.cfg lists the peers in the order they start, which decides the peers each one dials; the
+        // peers are looked up in a concurrent map, as peers learned of while running are added to it
+        Map<Integer, PeerData> listedPeers = parsePeerConfiguration();
+        peerConfiguration.setListedPeerIds(new ArrayList<>(listedPeers.keySet()));
+        peerConfiguration.setPeerIdToDataMap(new ConcurrentSkipListMap<>(listedPeers));
         peerConfiguration.setLogHandler(logHandler);
 
         peerConfiguration.setNumberOfPreferredNeighbors(numberOfPreferredNeighbors);
@@ -63,23 +77,92 @@ public class PeerHandler {
         peerConfiguration.setFileName(filename);
         peerConfiguration.setFileSize(fileSize);
         peerConfiguration.setChunkSize(pieceSize);
+        peerConfiguration.setConnectionMode(connectionMode);
+        peerConfiguration.setMaxConnections(maxConnections);
+        peerConfiguration.setNeighborSelection(neighborSelection);
+        peerConfiguration.setPeerExchangeEnabled(isPeerExchangeEnabled);
+        if (trackerAddress != null) {
+            String[] tracker = trackerAddress.split(AppConstants.TRACKER_ADDRESS_SEPARATOR);
+            peerConfiguration.setTracker(tracker[0], Integer.parseInt(tracker[1]));
+        }
+        peerConfiguration.setConnectionThreadFactory(createConnectionThreadFactory(connectionMode, logHandler));
+        if (AppConstants.CONNECTION_MODE_NIO.equals(connectionMode)) {
+            peerConfiguration.setMessageEventLoop(new MessageEventLoop(peerConfiguration, AppConstants.NIO_IO_THREAD_COUNT));
+        }
 
         calculateAndAssignBitfield(peerConfiguration);
         chopFileIntoPieces(peerConfiguration);
+        peerConfiguration.setHaveBroadcaster(new HaveBroadcaster(peerConfiguration));
+        peerConfiguration.setPieceSyncer(new PieceSyncer(peerConfiguration));
+        peerConfiguration.setChokeScheduler(new ChokeScheduler(peerConfiguration));
+        peerConfiguration.setPeerDiscovery(new PeerDiscovery(peerConfiguration));
+
+        // Listen before dialing, so peers dialing this one are accepted as soon as it starts; peers not
+        // listening yet are dialed again with backoff instead of waiting a fixed time for them to start.
+        // With a connection limit below the number of peers, the scheduler's neighbor rounds do the dialing.
+        // Peers listed by the tracker, if any, or exchanged by neighbors are added as they are learned of.
+        ThreadFactory connectionThreadFactory = peerConfiguration.getConnectionThreadFactory();
+        connectionThreadFactory.newThread(new Receiver(peerConfiguration)).start();
+        if (peerConfiguration.hasTracker()) {
+            new TrackerClient(peerConfiguration).start();
+        }
+        if (!peerConfiguration.isPartialMesh()) {
+            connectionThreadFactory.newThread(new Sender(peerConfiguration)).start();
+        }
+        peerConfiguration.getChokeScheduler().start();
+        peerConfiguration.getHaveBroadcaster().start();
+        peerConfiguration.getPieceSyncer().start();
+    }
 
-        peerHold(AppConstants.DELAY*2);
-        new Sender(peerConfiguration).start();
-        new Receiver(peerConfiguration).start();
-        new ChokeUnchokeHandler(peerConfiguration).start();
-        new OptimisticUnchokeHandler(peerConfiguration).start();
+    /**
+     * Method: configureLogging
+     * Description: Applies the optional logging settings of Common.cfg: LogLevel (DEBUG, INFO or OFF),
+     *              LogToConsole (true or false) and LogSampling, a comma-separated list of event:rate
+     *              pairs such as HAVE:100,PIECE:10 that logs one in every rate events of the type.
+     *
+     * @param logHandler          The log handler to configure.
+     * @param commonConfiguration The common configuration properties.
+     */
+    private static void configureLogging(LogHandler logHandler, Properties commonConfiguration) {
+        logHandler.setLogLevel(LogLevel.valueOf(commonConfiguration.getProperty(AppConstants.LOG_LEVEL, LogLevel.DEBUG.name())));
+        logHandler.setConsoleEnabled(Boolean.parseBoolean(commonConfiguration.getProperty(AppConstants.LOG_TO_CONSOLE, Boolean.TRUE.toString())));
+
+        String logSampling = commonConfiguration.getProperty(AppConstants.LOG_SAMPLING);
+        if (logSampling != null) {
+            for (String eventSampleRate : logSampling.split(AppConstants.LOG_SAMPLING_SEPARATOR)) {
+                String[] entry = eventSampleRate.split(AppConstants.LOG_SAMPLE_RATE_SEPARATOR);
+                logHandler.setSampleRate(LogEvent.valueOf(entry[0]), Integer.parseInt(entry[1]));
+            }
+        }
     }
 
     /**
-     * Method: setupAndStartPeerProcess
-     * Description: Sets up the peer configuration, initializes necessary components, and starts the peer process.
+     * Method: createConnectionThreadFactory
+     * Description: Creates the factory for the threads running the Sender, the Receiver and the per-connection
+     *              Message loops. In virtual mode these are virtual threads; Thread.ofVirtual() is looked up
+     *              reflectively so the project still builds on JDKs without it, where platform threads are used.
      *
-     * @param peerProcessId The ID of the peer process.
-     * @throws IOException If an I/O error occurs.
+     * @param connectionMode The connection mode configured in Common.cfg.
+     * @param logHandler     The log handler used to report a fallback to platform threads.
+     * @return The factory for connection threads.
+     */
+    private static ThreadFactory createConnectionThreadFactory(String connectionMode, LogHandler logHandler) {
+        if (AppConstants.CONNECTION_MODE_VIRTUAL.equals(connectionMode)) {
+            try {
+                Object virtualThreadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(virtualThreadBuilder);
+            } catch (ReflectiveOperationException e) {
+                logHandler.printMessage(DisplayConstants.VIRTUAL_THREADS_UNAVAILABLE_MESSAGE);
+            }
+        }
+        return Thread::new;
+    }
+
+    /**
+     * Method: setupPeerDirectory
+     * Description: Creates the directory of the peer if it does not exist yet.
+     *
+     * @return The directory of the peer.
      */
     public static File setupPeerDirectory() {
         String peerDirFileName = String.format(AppConstants.PEER_DIRECTORY_NAME, peerProcessId);
@@ -91,7 +174,8 @@ public class PeerHandler {
     }
     /**
      * Method: parsePeerConfiguration
-     * Description: Parses the peer configuration file and returns a map of peer data.
+     * Description: Parses the peer configuration file and returns a map of peer data, in the order the peers
+     *              are listed in the file.
      *
      * @return A map containing peer data with peer process ID as the key.
      */
@@ -145,6 +229,7 @@ public class PeerHandler {
     /**
      * Method: calculateAndAssignBitfield
      * Description: Calculates and assigns the bitfield for the peer based on file information.
+     *              A peer without the file resumes from the piece journal left by a previous run, if any.
      *
      * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
      */
@@ -154,15 +239,28 @@ public class PeerHandler {
         // Calculate the number of file chunks based on file size and piece size
         int numberOfFileChunks = getNumberOfFileChunks(peerConfiguration.getFileSize(), peerConfiguration.getChunkSize());
         int peerHasFile = peerData.getHasFile();
-        int[] peerBitfield = new int[numberOfFileChunks];
 
         // Initialize the bitfield with the peer's file status
-        Arrays.fill(peerBitfield, peerHasFile);
+        Bitfield peerBitfield = peerHasFile == AppConstants.PEER_HAS_FILE
+                ? Bitfield.complete(numberOfFileChunks) : new Bitfield(numberOfFileChunks);
+
+        // Reload the pieces journaled by a previous run of this peer
+        if (peerHasFile == AppConstants.PEER_HAS_NO_FILE) {
+            Bitfield journaledBitfield = PieceJournal.readJournaledBitfield(getPieceJournalFile(peerConfiguration),
+                    getPeerFile(peerConfiguration), peerConfiguration.getFileSize(), numberOfFileChunks);
+            if (journaledBitfield != null) {
+                peerBitfield = journaledBitfield;
+                if (peerBitfield.isComplete()) {
+                    peerData.setHasFile(AppConstants.PEER_HAS_FILE);
+                }
+            }
+        }
         peerData.setBitfield(peerBitfield);
+        peerConfiguration.setPiecePicker(new PiecePicker(peerBitfield));
 
         // If the peer has the complete file, update the file status for the peer
         if (peerData.getHasFile() == AppConstants.PEER_HAS_FILE) {
-            peerConfiguration.updateFileStatusForPeer();
+            peerConfiguration.updateFileStatusForPeer(peerProcessId);
         }
     }
 
@@ -174,129 +272,78 @@ public class PeerHandler {
      * @param pieceSize The size of each file piece (chunk).
      * @return The calculated number of file chunks.
      */
-    private static int getNumberOfFileChunks(int fileSize, int pieceSize){
-        return (fileSize + pieceSize - 1) / pieceSize;
+    private static int getNumberOfFileChunks(long fileSize, int pieceSize){
+        return PieceStore.getNumberOfPieces(fileSize, pieceSize);
     }
     /**
-     * Method: readFileBytes
-     * Description: Reads the bytes of a file given its directory, filename, and size.
+     * Method: getPeerFile
+     * Description: Returns the file shared by the peers, located in the peer directory.
      *
-     * @param dir      The directory containing the file.
-     * @param filename The name of the file.
-     * @param fileSize The size of the file.
-     * @return An array of bytes representing the contents of the file.
-     * @throws IOException If an I/O error occurs.
+     * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
+     * @return The file in the peer directory.
      */
-    private static byte[] readFileBytes(File dir, String filename, int fileSize) throws IOException {
-        // Create input stream for the file
-        FileInputStream inStream = new FileInputStream(dir.getAbsolutePath() + File.separator + filename);
-        BufferedInputStream file = new BufferedInputStream(inStream);
-
-        // Read the bytes of the file into a byte array
-        byte[] fileBytes = new byte[fileSize];
-        int read = file.read(fileBytes);
-
-        // Close the file stream
-        file.close();
-
-        return fileBytes;
+    private static File getPeerFile(PeerConfiguration peerConfiguration) {
+        return new File(peerConfiguration.getDirectory(), peerConfiguration.getFileName());
     }
 
+    /**
+     * Method: getPieceJournalFile
+     * Description: Returns the sidecar file journaling the pieces of the file, located in the peer directory.
+     *
+     * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
+     * @return The piece journal file in the peer directory.
+     */
+    private static File getPieceJournalFile(PeerConfiguration peerConfiguration) {
+        String journalFileName = String.format(AppConstants.PIECE_JOURNAL_FILE_NAME, peerConfiguration.getFileName());
+        return new File(peerConfiguration.getDirectory(), journalFileName);
+    }
 
     /**
      * Method: chopFileIntoPieces
-     * Description: Reads the file, divides it into chunks, and updates peer configuration accordingly.
+     * Description: Opens the piece store over the peer's file and updates peer configuration accordingly.
+     *              Pieces are served from and written to the file on disk, so nothing is read onto the heap here.
      *
      * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
      * @throws IOException If an I/O error occurs.
      */
     private static void chopFileIntoPieces(PeerConfiguration peerConfiguration) throws IOException {
-        String filename = peerConfiguration.getFileName();
-        int fileSize = peerConfiguration.getFileSize();
-        int chunkSize = peerConfiguration.getChunkSize();
-
-        // Calculate the number of file chunks based on file size and chunk size
-        int numberOfFileChunks = getNumberOfFileChunks(fileSize, chunkSize);
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerProcessId);
-
-        // If the peer does not have the file, set chunks to an empty array and return
-        if (peerData.getHasFile() == AppConstants.PEER_HAS_NO_FILE) {
-            peerConfiguration.setChunks(new byte[numberOfFileChunks][]);
-            return;
-        }
-
-        // Initialize the array to store file chunks
-        byte[][] fileChunkIdToContentMap = new byte[numberOfFileChunks][];
-        byte[] fileBytes = readFileBytes(peerConfiguration.getDirectory(), filename, fileSize);
-        int index = 0;
-        int peerChunkCount = peerData.getChunkCount();
-        int bitfieldLength = peerData.getBitfield().length;
-
-        // Loop through the file and create chunks
-        for (int i = 0; i < fileSize; i += chunkSize) {
-            int chunkEnd = Math.min(i + chunkSize, fileSize);
-            byte[] chunk = Arrays.copyOfRange(fileBytes, i, chunkEnd);
-            fileChunkIdToContentMap[index++] = chunk;
-
-            // Update peer information if all chunks are received
-            if (++peerChunkCount == bitfieldLength) {
-                peerData.setHasFile(AppConstants.PEER_HAS_FILE);
-            }
-        }
-
-        // Update peer chunk count and set the chunks in the configuration
-        peerData.setChunkCount(peerChunkCount);
-        peerConfiguration.setChunks(fileChunkIdToContentMap);
+        boolean peerHasFile = peerData.getHasFile() == AppConstants.PEER_HAS_FILE;
+
+        // Map the file read-only if the peer has it, otherwise preallocate it and journal the pieces it receives.
+        // A peer resuming no pieces clears the journal before the file is preallocated, as a journal rejected
+        // for a missing or resized file would otherwise be trusted against the new, empty file after a restart.
+        boolean isJournalReset = peerData.getBitfield().cardinality() == 0;
+        PieceJournal pieceJournal = peerHasFile ? null
+                : new PieceJournal(getPieceJournalFile(peerConfiguration), peerData.getBitfield().length(), isJournalReset);
+        PieceStore pieceStore = new PieceStore(getPeerFile(peerConfiguration), peerConfiguration.getFileSize(),
+                peerConfiguration.getChunkSize(), peerHasFile, pieceJournal);
+        peerConfiguration.setChunks(pieceStore);
     }
 
 
     /**
      * Method: updatePeerFileStatus
-     * Description: Updates the file status for the peer, logs completion message, and writes the file if all chunks are received.
+     * Description: Updates the file status for the peer, logs completion message, and flushes the file if all chunks are received.
      *
      * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
      */
     public void updatePeerFileStatus(PeerConfiguration peerConfiguration) {
-        String filePath = peerConfiguration.getDirectory().getAbsolutePath() + File.separator + peerConfiguration.getFileName();
         PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
         LogHandler logHandler = peerConfiguration.getLogHandler();
-        byte[][] fileChunks = peerConfiguration.getChunks();
-
-        // Count the number of '1' bits in the peer's bitfield
-        int bitfieldIndex = (int) Arrays.stream(peerData.getBitfield())
-                .filter(bit -> bit == AppConstants.PEER_HAS_FILE)
-                .count();
 
-        // Check if all chunks are received
-        if (bitfieldIndex == peerData.getBitfield().length) {
+        // Check if all chunks are received; the bitfield keeps its missing count as pieces arrive
+        if (peerData.getBitfield().getMissingCount() == 0) {
             // Log download completion message
-            String message = String.format(DisplayConstants.DOWNLOAD_COMPLETE_MESSAGE, peerData.getPeerProcessId());
-            logHandler.printMessageAndLogMessageToFile(message);
+            logHandler.logEvent(LogEvent.COMPLETE, DisplayConstants.DOWNLOAD_COMPLETE_MESSAGE, peerData.getPeerProcessId());
 
-            // Reset bitfield index and create a byte array to store the complete file
-            bitfieldIndex = 0;
-            byte[] peerBitfield = new byte[peerConfiguration.getFileSize()];
-
-            // Iterate through file chunks and copy them to the complete file array
-            for (int i = 0; i < fileChunks.length; i++) {
-                byte[] chunk = fileChunks[i];
-
-                for (int j = 0; j < chunk.length; j++) {
-                    peerBitfield[bitfieldIndex++] = chunk[j];
-                }
-            }
-
-            try (FileOutputStream fileOutputStream = new FileOutputStream(filePath);
-                 BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream)) {
-                // Write the complete file to disk
-                bufferedOutputStream.write(peerBitfield);
-            } catch (IOException e) {
-                // Ignoring IOException as it is expected and does not require any action
-            }
+            // Pieces were written at their offsets as they arrived, so only the last batch is left to force to
+            // disk, which the piece syncer does off the thread receiving pieces
+            peerConfiguration.getPieceSyncer().requestFlush();
 
             // Update peer file status and configuration
             peerData.setHasFile(AppConstants.PEER_HAS_FILE);
-            peerConfiguration.updateFileStatusForPeer();
+            peerConfiguration.updateFileStatusForPeer(peerData.getPeerProcessId());
         }
     }
 
@@ -315,7 +362,7 @@ public class PeerHandler {
 
         try {
             // Send the choke or unchoke message to the peer connection
-            MessageHandler.sendMessage(peerConnection.getConnection(), MessageHandler.constructMessage(1, messageType, null));
+            MessageHandler.sendMessage(peerConnection, MessageHandler.constructMessage(1, messageType, null));
         } catch (IOException e) {
             // Ignoring IOException as it is expected and does not require any action
         }
@@ -326,17 +373,12 @@ public class PeerHandler {
      * Method: sendUnchokeMessage
      * Description: Sends an unchoke message to a specific peer if currently choked.
      *
-     * @param peerConfiguration    The PeerConfiguration object containing peer-specific configuration.
-     * @param peerIdForNeighbor    The peer ID for the neighbor to send the unchoke message.
+     * @param peerConnection The PeerConnection object representing the connection to the neighbor.
      */
-    public void sendUnchokeMessage(PeerConfiguration peerConfiguration, int peerIdForNeighbor) {
-        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
-
-        // Check if the neighbor is currently choked
-        if (peerIdToConnectionsMap.get(peerIdForNeighbor).getIsChoked()) {
-            // Retrieve the connection for the neighbor and send an unchoke message
-            PeerConnection currConn = peerIdToConnectionsMap.get(peerIdForNeighbor);
-            handleSendChokeUnchokeMessage(currConn, MessageType.UNCHOKE, false);
+    public void sendUnchokeMessage(PeerConnection peerConnection) {
+        // Check if the neighbor is currently choked and send an unchoke message
+        if (peerConnection.getIsChoked()) {
+            handleSendChokeUnchokeMessage(peerConnection, MessageType.UNCHOKE, false);
         }
     }
 
@@ -360,6 +402,8 @@ public class PeerHandler {
     /**
      * Method: checkInterestedAndSendData
      * Description: Determines which peers to unchoke based on interest and sends appropriate messages.
+     *              A peer having the file prefers the interested peers it uploaded to fastest, as it downloads
+     *              nothing; the peers it has not uploaded to yet rank equal and are picked at random.
      *
      * @param peerConfiguration      The PeerConfiguration object containing peer-specific configuration.
      * @param interestedPeers        The list of peers interested in the current peer.
@@ -368,127 +412,158 @@ public class PeerHandler {
      */
     public void checkInterestedAndSendData(PeerConfiguration peerConfiguration, List<Integer> interestedPeers,
                                            int numberOfPreferredNeighbors, int[] preferredNeighbors) {
-        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
-
-        // If the number of interested peers is less than or equal to the maximum preferred neighbors,
-        // unchoke all interested peers
-        if (interestedPeers.size() <= numberOfPreferredNeighbors) {
-            for (Integer currPeerId : interestedPeers) {
-                sendUnchokeMessage(peerConfiguration, currPeerId);
-            }
-        } else {
-            // If there are more interested peers than the maximum preferred neighbors,
-            // randomly select and unchoke the maximum preferred neighbors
-            Random random = new Random();
-            IntStream.range(0, numberOfPreferredNeighbors)
-                    .forEach(nei -> {
-                        int randomPeer = Math.abs(random.nextInt(interestedPeers.size()));
-                        preferredNeighbors[nei] = interestedPeers.remove(randomPeer);
-                    });
-
-            // Unchoke the selected preferred neighbors
-            unchokeAllNeighbors(peerConfiguration, preferredNeighbors);
-
-            // Choke remaining interested peers
-            for (Integer interestedPeer : interestedPeers) {
-                if (!peerIdToConnectionsMap.get(interestedPeer).getIsChoked() &&
-                        !peerIdToConnectionsMap.get(interestedPeer).getIsOptimisticallyUnchoked()) {
-                    PeerConnection currConn =  peerIdToConnectionsMap.get(interestedPeer);
-                    handleSendChokeUnchokeMessage(currConn, MessageType.CHOKE, true);
-                }
-            }
-        }
+        unchokePreferredNeighbors(peerConfiguration, interestedPeers, numberOfPreferredNeighbors, preferredNeighbors, PeerConnection::getUploadRate);
     }
 
 
     /**
-     * Method: unchokeAllNeighbors
-     * Description: Unchokes all neighbors specified in the array.
+     * Method: checkPreferenceAndSendChokeUnchoke
+     * Description: Determines which peers to unchoke based on preference and sends appropriate messages.
+     *              A peer without the file prefers the interested peers it downloaded from fastest.
      *
-     * @param peerConfiguration The PeerConfiguration object containing peer-specific configuration.
-     * @param neighbors         An array of peer IDs to be unchoked.
+     * @param peerConfiguration      The PeerConfiguration object containing peer-specific configuration.
+     * @param interestedPeers        The list of peers interested in the current peer.
+     * @param numberOfPreferredNeighbors The maximum number of preferred neighbors to unchoke.
+     * @param preferredNeighbors     An array to store the peer IDs of preferred neighbors.
      */
-    private void unchokeAllNeighbors(PeerConfiguration peerConfiguration, int[] neighbors) {
-        for (int peerId : neighbors) {
-            // Send unchoke message to each neighbor
-            sendUnchokeMessage(peerConfiguration, peerId);
-        }
+    public void checkPreferenceAndSendChokeUnchoke(PeerConfiguration peerConfiguration, List<Integer> interestedPeers,
+                                                   int numberOfPreferredNeighbors, int[] preferredNeighbors) {
+        unchokePreferredNeighbors(peerConfiguration, interestedPeers, numberOfPreferredNeighbors, preferredNeighbors, PeerConnection::getDownloadRate);
     }
 
+
     /**
-     * Method: findHighestRatePeer
-     * Description: Finds the peer with the highest upload rate among a list of peers.
+     * Method: unchokePreferredNeighbors
+     * Description: Unchokes the selected preferred neighbors and chokes the remaining interested peers,
+     *              except the optimistically unchoked one.
      *
      * @param peerConfiguration      The PeerConfiguration object containing peer-specific configuration.
-     * @param peers                  The list of peer IDs to compare based on upload rate.
-     * @return The peer ID with the highest upload rate.
+     * @param interestedPeers        The list of peers interested in the current peer.
+     * @param numberOfPreferredNeighbors The maximum number of preferred neighbors to unchoke.
+     * @param preferredNeighbors     An array to store the peer IDs of preferred neighbors.
+     * @param rateOf                 The rate of a connection the peers are ranked by, fastest first.
      */
-    private int findHighestRatePeer(PeerConfiguration peerConfiguration, List<Integer> peers) {
+    private void unchokePreferredNeighbors(PeerConfiguration peerConfiguration, List<Integer> interestedPeers,
+                                           int numberOfPreferredNeighbors, int[] preferredNeighbors, ToDoubleFunction<PeerConnection> rateOf) {
+        // Snapshot of the connections, as a connection lost since the interested peers were listed is taken
+        // out of the map and has no one left to choke or unchoke
         Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
-
-        // Initialize with the first peer in the list
-        int highestRatePeer = peers.get(0);
-
-        // Iterate through the list of peers and find the one with the highest upload rate
-        for (int peer = 1; peer < peers.size(); peer++) {
-            int currentPeer = peers.get(peer);
-            if (peerIdToConnectionsMap.get(highestRatePeer).getRate() <=
-                    peerIdToConnectionsMap.get(currentPeer).getRate()) {
-                highestRatePeer = currentPeer;
+        List<PeerConnection> interestedConnections = new ArrayList<>(interestedPeers.size());
+        for (int peerId : interestedPeers) {
+            PeerConnection peerConnection = peerIdToConnectionsMap.get(peerId);
+            if (peerConnection != null) {
+                interestedConnections.add(peerConnection);
             }
         }
+        boolean[] isPreferred = selectPreferredNeighbors(interestedConnections, numberOfPreferredNeighbors,
+                preferredNeighbors, rateOf);
+
+        for (int peer = 0; peer < interestedConnections.size(); peer++) {
+            PeerConnection currConn = interestedConnections.get(peer);
+            if (isPreferred[peer]) {
+                sendUnchokeMessage(currConn);
+                continue;
+            }
 
-        return highestRatePeer;
+            // Choke remaining interested peers
+            if (!currConn.getIsChoked() && !currConn.getIsOptimisticallyUnchoked()) {
+                handleSendChokeUnchokeMessage(currConn, MessageType.CHOKE, true);
+            }
+        }
     }
 
 
     /**
-     * Method: checkPreferenceAndSendChokeUnchoke
-     * Description: Determines which peers to unchoke based on preference and sends appropriate messages.
+     * Method: selectPreferredNeighbors
+     * Description: Selects up to numberOfPreferredNeighbors of the interested peers. The rates are read once
+     *              into a snapshot, and every peer draws a random tie-breaker, so peers with equal rates are
+     *              picked at random. A min-heap holds the best peers seen so far, which selects the top k
+     *              of n peers in O(n log k) without modifying the list of interested connections.
      *
-     * @param peerConfiguration      The PeerConfiguration object containing peer-specific configuration.
-     * @param interestedPeers        The list of peers interested in the current peer.
-     * @param numberOfPreferredNeighbors The maximum number of preferred neighbors to unchoke.
+     * @param interestedConnections  The connections to the peers interested in the current peer.
+     * @param numberOfPreferredNeighbors The maximum number of preferred neighbors to select.
      * @param preferredNeighbors     An array to store the peer IDs of preferred neighbors.
+     * @param rateOf                 The rate of a connection the peers are ranked by, fastest first.
+     * @return A flag for each interested connection, in list order, indicating if it was selected.
      */
-    public void checkPreferenceAndSendChokeUnchoke(PeerConfiguration peerConfiguration, List<Integer> interestedPeers,
-                                                   int numberOfPreferredNeighbors, int[] preferredNeighbors) {
-        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+    private boolean[] selectPreferredNeighbors(List<PeerConnection> interestedConnections, int numberOfPreferredNeighbors,
+                                               int[] preferredNeighbors, ToDoubleFunction<PeerConnection> rateOf) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int numberOfPeers = interestedConnections.size();
+
+        // Snapshot of the rates, so every comparison sees the same values while the meters keep sampling
+        double[] rates = new double[numberOfPeers];
+        int[] tieBreakers = new int[numberOfPeers];
+        for (int peer = 0; peer < numberOfPeers; peer++) {
+            rates[peer] = rateOf.applyAsDouble(interestedConnections.get(peer));
+            tieBreakers[peer] = random.nextInt();
+        }
 
-        // If the number of interested peers is less than or equal to the maximum preferred neighbors,
-        // unchoke all interested peers and set preferred neighbors
-        if (interestedPeers.size() <= numberOfPreferredNeighbors) {
-            Iterator<Integer> iterator = interestedPeers.iterator();
-            int index = 0;
-            while (iterator.hasNext() && index < numberOfPreferredNeighbors) {
-                int peerId = iterator.next();
-                preferredNeighbors[index++] = peerId;
-                sendUnchokeMessage(peerConfiguration, peerId);
+        // Min-heap of the positions of the best peers so far, the worst of them at the root
+        int[] heap = new int[Math.min(numberOfPreferredNeighbors, numberOfPeers)];
+        int heapSize = 0;
+        for (int peer = 0; peer < numberOfPeers; peer++) {
+            if (heapSize < heap.length) {
+                heap[heapSize++] = peer;
+                siftUp(heap, heapSize - 1, rates, tieBreakers);
+            } else if (heapSize > 0 && ranksBelow(heap[0], peer, rates, tieBreakers)) {
+                heap[0] = peer;
+                siftDown(heap, heapSize, rates, tieBreakers);
             }
-        } else {
-            // If there are more interested peers than the maximum preferred neighbors,
-            // select and unchoke the peers with the highest upload rates up to the maximum preferred neighbors
-            for (int peer = 0; peer < numberOfPreferredNeighbors && !interestedPeers.isEmpty(); peer++) {
-                int peerId = findHighestRatePeer(peerConfiguration, interestedPeers);
-                sendUnchokeMessage(peerConfiguration, peerId);
-                preferredNeighbors[peer] = peerId;
-
-                // Remove the selected peer from the list
-                if (!interestedPeers.isEmpty()) {
-                    interestedPeers.remove(peerId);
-                }
+        }
+
+        boolean[] isPreferred = new boolean[numberOfPeers];
+        for (int neighbor = 0; neighbor < heapSize; neighbor++) {
+            isPreferred[heap[neighbor]] = true;
+            preferredNeighbors[neighbor] = interestedConnections.get(heap[neighbor]).getPeerProcessId();
+        }
+        return isPreferred;
+    }
+
+    // Compares two peers by their rates, then by their random tie-breakers
+    private static boolean ranksBelow(int peer, int otherPeer, double[] rates, int[] tieBreakers) {
+        int comparison = Double.compare(rates[peer], rates[otherPeer]);
+        return comparison != 0 ? comparison < 0 : tieBreakers[peer] < tieBreakers[otherPeer];
+    }
+
+    // Moves the peer at the given heap position up until its parent ranks below it
+    private static void siftUp(int[] heap, int position, double[] rates, int[] tieBreakers) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!ranksBelow(heap[position], heap[parent], rates, tieBreakers)) {
+                return;
             }
+            swap(heap, position, parent);
+            position = parent;
+        }
+    }
 
-            // Choke remaining interested peers
-            interestedPeers.stream()
-                    .filter(peer -> !peerIdToConnectionsMap.get(peer).getIsChoked() &&
-                            !peerIdToConnectionsMap.get(peer).getIsOptimisticallyUnchoked())
-                    .forEach(peer -> {
-                        PeerConnection currConn = peerIdToConnectionsMap.get(peer);
-                        handleSendChokeUnchokeMessage(currConn, MessageType.CHOKE, true);
-                    });
+    // Moves the peer at the root of the heap down until both its children rank above it
+    private static void siftDown(int[] heap, int heapSize, double[] rates, int[] tieBreakers) {
+        int position = 0;
+        while (true) {
+            int lowest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < heapSize && ranksBelow(heap[left], heap[lowest], rates, tieBreakers)) {
+                lowest = left;
+            }
+            if (right < heapSize && ranksBelow(heap[right], heap[lowest], rates, tieBreakers)) {
+                lowest = right;
+            }
+            if (lowest == position) {
+                return;
+            }
+            swap(heap, position, lowest);
+            position = lowest;
         }
     }
 
+    private static void swap(int[] heap, int position, int otherPosition) {
+        int peer = heap[position];
+        heap[position] = heap[otherPosition];
+        heap[otherPosition] = peer;
+    }
+
 
 }
@@ -0,0 +1,258 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * PiecePicker keeps, for every piece this peer still lacks, how many connected peers hold it, and picks
+ * the rarest piece a given peer can supply. Missing pieces are kept in one array ordered by availability,
+ * split into buckets of equal availability, so a change in availability is a single swap at a bucket
+ * boundary and a pick scans the rarest buckets first instead of every piece. The scan stops once it has
+ * passed every missing piece the peer holds, as counted incrementally on the connection, so the buckets
+ * above them are skipped; it still walks most of the missing pieces when the only pieces the peer can
+ * supply are among the most common ones, or are reserved for other connections, as near the end of the
+ * download.
+ *
+ * A picked piece is reserved for the connection it is requested on until it arrives, the reservation is
+ * released or its deadline passes, so that no two connections download the same piece.
+ */
+public class PiecePicker {
+    private final Bitfield bitfield;    // Pieces this peer holds
+    private final int[] availability;   // Number of connected peers holding each piece
+    private final int[] pieceOrder;     // Missing pieces ordered by availability, followed by the pieces held
+    private final int[] piecePosition;  // Position of each piece in pieceOrder
+    private int[] bucketStart;          // Position in pieceOrder where the pieces of each availability start
+    private int highestAvailability;    // Highest availability that has a bucket
+    private int missingPieces;          // Number of missing pieces, i.e. the end of the last bucket
+    private final Set<Integer> countedPeers; // Peers whose bitfield is included in the availability
+    private final PeerConnection[] reservationHolders; // Connection each piece is reserved for, if any
+    private final long[] reservationDeadlines;          // Time each reservation lapses, in nanoseconds
+
+    // Constructor
+    public PiecePicker(Bitfield bitfield) {
+        this.bitfield = bitfield;
+        int numberOfPieces = bitfield.length();
+        availability = new int[numberOfPieces];
+        pieceOrder = new int[numberOfPieces];
+        piecePosition = new int[numberOfPieces];
+        bucketStart = new int[AppConstants.INITIAL_AVAILABILITY_LEVELS];
+        missingPieces = numberOfPieces;
+        countedPeers = new HashSet<>();
+        reservationHolders = new PeerConnection[numberOfPieces];
+        reservationDeadlines = new long[numberOfPieces];
+
+        // Shuffle the initial order so that peers break ties between equally rare pieces differently
+        for (int piece = 0; piece < numberOfPieces; piece++) {
+            int position = ThreadLocalRandom.current().nextInt(piece + 1);
+            pieceOrder[piece] = pieceOrder[position];
+            pieceOrder[position] = piece;
+        }
+        for (int position = 0; position < numberOfPieces; position++) {
+            piecePosition[pieceOrder[position]] = position;
+        }
+
+        for (int piece = bitfield.nextSetBit(0); piece >= 0; piece = bitfield.nextSetBit(piece + 1)) {
+            pieceReceived(piece);
+        }
+    }
+
+    /**
+     * Counts every piece in a newly received bitfield as available from the peer, replacing the
+     * pieces counted for an earlier bitfield of the same peer.
+     *
+     * @param peerProcessId    The process ID of the peer.
+     * @param previousBitfield The bitfield previously recorded for the peer.
+     * @param bitfield         The bitfield received from the peer.
+     */
+    public synchronized void setPeerBitfield(int peerProcessId, Bitfield previousBitfield, Bitfield bitfield) {
+        if (!countedPeers.add(peerProcessId) && previousBitfield != null) {
+            for (int piece = previousBitfield.nextSetBit(0); piece >= 0; piece = previousBitfield.nextSetBit(piece + 1)) {
+                decrementAvailability(piece);
+            }
+        }
+        for (int piece = bitfield.nextSetBit(0); piece >= 0; piece = bitfield.nextSetBit(piece + 1)) {
+            incrementAvailability(piece);
+        }
+    }
+
+    /**
+     * Records a piece announced in a HAVE message in the peer's bitfield and counts it as available
+     * from the peer, unless the peer was already known to hold it.
+     *
+     * @param peerProcessId The process ID of the peer.
+     * @param peerBitfield  The bitfield recorded for the peer.
+     * @param piece         The index of the piece.
+     * @return True if the peer was not known to hold the piece before.
+     */
+    public synchronized boolean addPeerPiece(int peerProcessId, Bitfield peerBitfield, int piece) {
+        if (!peerBitfield.set(piece)) {
+            return false;
+        }
+        if (countedPeers.contains(peerProcessId)) {
+            incrementAvailability(piece);
+        }
+        return true;
+    }
+
+    /**
+     * Stops counting the pieces of a peer that is no longer connected.
+     *
+     * @param peerProcessId The process ID of the peer.
+     * @param peerBitfield  The bitfield recorded for the peer.
+     */
+    public synchronized void removePeer(int peerProcessId, Bitfield peerBitfield) {
+        if (!countedPeers.remove(peerProcessId)) {
+            return;
+        }
+        for (int piece = peerBitfield.nextSetBit(0); piece >= 0; piece = peerBitfield.nextSetBit(piece + 1)) {
+            decrementAvailability(piece);
+        }
+    }
+
+    /**
+     * Takes a piece this peer now holds out of the candidates, moving it past the last bucket.
+     *
+     * @param piece The index of the piece.
+     */
+    public synchronized void pieceReceived(int piece) {
+        reservationHolders[piece] = null;
+        if (piecePosition[piece] >= missingPieces) {
+            return;
+        }
+
+        // Carry the piece up through the buckets above its own, then across the end of the last one
+        for (int level = availability[piece]; level < highestAvailability; level++) {
+            int lastPosition = bucketStart[level + 1] - 1;
+            swap(piecePosition[piece], lastPosition);
+            bucketStart[level + 1] = lastPosition;
+        }
+        swap(piecePosition[piece], missingPieces - 1);
+        missingPieces--;
+    }
+
+    /**
+     * Picks the rarest missing piece the peer holds that is not reserved for another connection,
+     * breaking ties at random, and reserves it for the connection.
+     *
+     * @param peerBitfield   The bitfield of the peer to request from.
+     * @param peerConnection The connection the piece will be requested on.
+     * @param timeout        How long the reservation holds, in nanoseconds.
+     * @return The index of the reserved piece, or -1 if the peer holds no eligible piece.
+     */
+    public synchronized int reservePiece(Bitfield peerBitfield, PeerConnection peerConnection, long timeout) {
+        long now = System.nanoTime();
+
+        // The connection keeps count of the missing pieces the peer holds as HAVE and PIECE messages arrive,
+        // so nothing is recounted per pick. A HAVE and a PIECE for the same piece racing on different
+        // connections can leave the count one short, which only ends this scan early; the count is
+        // recounted from both bitfields once it drops to zero, so no candidate is missed for good
+        int candidates = peerConnection.getInterestingPieceCount();
+
+        // Pieces nobody holds cannot be supplied, so the scan starts with pieces held by one peer, and ends
+        // once no missing piece the peer holds is left in the buckets above
+        for (int level = 1; level <= highestAvailability && candidates > 0; level++) {
+            int start = bucketStart[level];
+            int end = level < highestAvailability ? bucketStart[level + 1] : missingPieces;
+            int bucketSize = end - start;
+            if (bucketSize <= 0) {
+                continue;
+            }
+
+            int offset = ThreadLocalRandom.current().nextInt(bucketSize);
+            for (int i = 0; i < bucketSize; i++) {
+                int piece = pieceOrder[start + (offset + i) % bucketSize];
+                if (!peerBitfield.has(piece)) {
+                    continue;
+                }
+                if (!isReserved(piece, now)) {
+                    reservationHolders[piece] = peerConnection;
+                    reservationDeadlines[piece] = now + timeout;
+                    return piece;
+                }
+                if (!bitfield.has(piece) && --candidates == 0) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the reservations a connection still holds on the given pieces, e.g. when the
+     * connection is choked, lost or its requests time out.
+     *
+     * @param peerConnection The connection the pieces were reserved for.
+     * @param pieces         The indices of the pieces.
+     */
+    public synchronized void releaseReservations(PeerConnection peerConnection, Collection<Integer> pieces) {
+        for (int piece : pieces) {
+            if (reservationHolders[piece] == peerConnection) {
+                reservationHolders[piece] = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of connected peers holding a piece.
+     *
+     * @param piece The index of the piece.
+     * @return The availability of the piece.
+     */
+    public synchronized int getAvailability(int piece) {
+        return availability[piece];
+    }
+
+    // Checks whether a piece is reserved by a connection whose reservation has not lapsed
+    private boolean isReserved(int piece, long now) {
+        return reservationHolders[piece] != null && reservationDeadlines[piece] - now > 0;
+    }
+
+    // Moves a missing piece from the end of its bucket to the start of the next one
+    private void incrementAvailability(int piece) {
+        int level = availability[piece]++;
+        if (piecePosition[piece] >= missingPieces) {
+            return;
+        }
+
+        if (level == highestAvailability) {
+            highestAvailability++;
+            if (highestAvailability == bucketStart.length) {
+                bucketStart = Arrays.copyOf(bucketStart, bucketStart.length * 2);
+            }
+            bucketStart[highestAvailability] = missingPieces;
+        }
+        int lastPosition = bucketStart[level + 1] - 1;
+        swap(piecePosition[piece], lastPosition);
+        bucketStart[level + 1] = lastPosition;
+    }
+
+    // Moves a missing piece from the start of its bucket to the end of the previous one
+    private void decrementAvailability(int piece) {
+        if (availability[piece] == 0) {
+            return;
+        }
+        int level = availability[piece]--;
+        if (piecePosition[piece] >= missingPieces) {
+            return;
+        }
+
+        int firstPosition = bucketStart[level];
+        swap(piecePosition[piece], firstPosition);
+        bucketStart[level] = firstPosition + 1;
+    }
+
+    // Swaps the pieces at two positions of pieceOrder
+    private void swap(int position, int otherPosition) {
+        int piece = pieceOrder[position];
+        int otherPiece = pieceOrder[otherPosition];
+        pieceOrder[position] = otherPiece;
+        pieceOrder[otherPosition] = piece;
+        piecePosition[otherPiece] = position;
+        piecePosition[piece] = otherPosition;
+    }
+}
@@ -0,0 +1,75 @@
+package main.java.peer;
+
+import main.java.constants.DisplayConstants;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * PieceSyncer forces received pieces to disk off the threads receiving them, in batches of
+ * PIECE_SYNC_BATCH_SIZE pieces and once more when the download completes. Pieces are only
+ * journaled after they have been forced, so a crash never journals a piece that is not on disk.
+ */
+public class PieceSyncer extends Thread {
+    private final PeerConfiguration peerConfiguration;
+    private volatile boolean isFlushRequested;   // Flag indicating if the pieces written so far should be forced to disk
+
+    /*
+     * Constructor: PieceSyncer
+     * Initializes PieceSyncer with the provided PeerConfiguration. Pieces still waiting to be forced
+     * to disk when the process exits are forced by a shutdown hook.
+     */
+    public PieceSyncer(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        setDaemon(true);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushPieces));
+    }
+
+    /*
+     * Records a piece received in full, and wakes this thread once a batch of pieces is waiting to be
+     * forced to disk. The threads receiving pieces, including the event loop's I/O threads, only queue
+     * the piece here, so a slow fsync never stalls the connections they serve.
+     */
+    public void commit(int pieceIndex) {
+        if (peerConfiguration.getChunks().commitPiece(pieceIndex)) {
+            requestFlush();
+        }
+    }
+
+    /*
+     * Wakes this thread to force every piece written so far to disk, e.g. once the download completes.
+     */
+    public void requestFlush() {
+        isFlushRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /*
+     * Overridden run() method from Thread class.
+     * Waits for a flush to be requested, then forces the waiting pieces and the journal to disk.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            if (!isFlushRequested) {
+                LockSupport.park(this);
+                continue;
+            }
+            isFlushRequested = false;
+            flushPieces();
+        }
+    }
+
+    /*
+     * Forces the pieces written so far to disk. The pieces can still be served from the file if that
+     * fails, but they may not survive a crash, so the failure is only reported.
+     */
+    private void flushPieces() {
+        try {
+            peerConfiguration.getChunks().flush();
+        } catch (IOException e) {
+            peerConfiguration.getLogHandler().printMessage(String.format(DisplayConstants.FLUSH_FAILED_MESSAGE,
+                    peerConfiguration.getPeerProcessId(), e.getMessage()));
+        }
+    }
+}
@@ -2,45 +2,53 @@ package main.java.peer;
 
 import main.java.message.MessageHandler;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ThreadFactory;
 
 /*
  * Receiver class represents a thread responsible for handling incoming connections from peers.
+ * The server socket is bound when the Receiver is created, so the peer accepts connections before it
+ * dials any other peer, and each accepted connection is handshaken on its own thread.
  */
-public class Receiver extends Thread {
+public class Receiver implements Runnable {
     private final PeerConfiguration peerConfiguration; // Configuration details for the peer
     private final MessageHandler messageHandler;       // Handler for processing incoming messages
+    private final ServerSocket serverSocket;           // Server socket accepting connections from peers
 
-    public Receiver(PeerConfiguration peerConfiguration) {
+    public Receiver(PeerConfiguration peerConfiguration) throws IOException {
         // Initializing message handler and peer configuration
         messageHandler = new MessageHandler();
         this.peerConfiguration = peerConfiguration;
+
+        // Setting up server socket for incoming connections
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        serverSocket = openServerSocket(peerData.getPortNumber());
     }
 
-    // Thread run method
+    // Runnable run method, executed on a thread created by the connection thread factory
     @Override
     public void run() {
-        // Retrieving peer data and connection details
-        Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
-        PeerData peerData = peerIdToDataMap.get(peerConfiguration.getPeerProcessId());
-        Map<Integer, PeerConnection> peerIdToConnectionsMap = peerConfiguration.getPeerProcessIdToConnectionsMap();
+        ThreadFactory connectionThreadFactory = peerConfiguration.getConnectionThreadFactory();
 
         try {
-            // Setting up server socket for incoming connections
-            int portNumber = peerData.getPortNumber();
-            int numberOfExpectedConnections = peerIdToDataMap.size() - 1;
-            int numberOfCurrentConnections = peerIdToConnectionsMap.size();
-            ServerSocket serverSocket = new ServerSocket(portNumber);
-
-            // Accepting incoming connections until the expected number is reached
-            while (numberOfCurrentConnections < numberOfExpectedConnections) {
+            // Accepting incoming connections for as long as the peer runs, since connections are replaced
+            // when lost or rotated out, reading each handshake off the accepting thread so a slow peer does
+            // not hold up the next accept; the connection limit is applied once the handshake is read
+            while (!serverSocket.isClosed()) {
                 Socket connection = serverSocket.accept();
-                messageHandler.acceptConnectionAndReadHandshake(connection, peerConfiguration);
+                connectionThreadFactory.newThread(() -> messageHandler.acceptConnectionAndReadHandshake(connection, peerConfiguration)).start();
             }
         } catch (Exception e) {
             // Ignoring the exception without taking any specific action
         }
     }
+
+    // Opens the server socket, backed by a channel so accepted sockets can have pieces transferred to them straight from the file
+    private ServerSocket openServerSocket(int portNumber) throws IOException {
+        return ServerSocketChannel.open().bind(new InetSocketAddress(portNumber)).socket();
+    }
 }
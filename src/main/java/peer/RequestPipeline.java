@@ -0,0 +1,172 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RequestPipeline tracks the piece requests in flight on one connection, sizes the window of
+ * outstanding requests from the measured bandwidth-delay product of the connection and times out
+ * requests that take much longer than the connection's round trips have been taking.
+ */
+public class RequestPipeline {
+    private final Map<Integer, OutstandingRequest> outstandingRequests; // Piece index to its request in flight
+    private int requestWindow;                            // Number of requests allowed in flight
+    private double minRoundTripTime;                      // Lowest request-to-piece time seen, in nanoseconds
+    private double deliveryRate;                          // Smoothed piece delivery rate, in bytes per nanosecond
+    private long deliveredBytes;                          // Bytes of requested pieces received so far
+    private double smoothedRoundTripTime;                 // Smoothed request-to-piece time, in nanoseconds
+    private double roundTripTimeVariation;                // Smoothed deviation of the request-to-piece time
+
+    // Constructor
+    public RequestPipeline() {
+        outstandingRequests = new HashMap<>();
+        requestWindow = AppConstants.INITIAL_REQUEST_WINDOW;
+        minRoundTripTime = Double.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether another request can be sent without exceeding the window.
+     *
+     * @return True if fewer requests than the window are in flight.
+     */
+    public synchronized boolean hasRequestSlot() {
+        return outstandingRequests.size() < requestWindow;
+    }
+
+    /**
+     * Checks whether a request for the piece is already in flight on this connection.
+     *
+     * @param pieceIndex The index of the piece.
+     * @return True if the piece has been requested and not yet received.
+     */
+    public synchronized boolean isOutstanding(int pieceIndex) {
+        return outstandingRequests.containsKey(pieceIndex);
+    }
+
+    /**
+     * Records that a request for the piece has been sent.
+     *
+     * @param pieceIndex The index of the requested piece.
+     */
+    public synchronized void requestSent(int pieceIndex) {
+        outstandingRequests.put(pieceIndex, new OutstandingRequest(System.nanoTime(), deliveredBytes));
+    }
+
+    /**
+     * Records the arrival of a piece, updating the round-trip time and delivery rate estimates
+     * and resizing the window to the bandwidth-delay product plus one request of headroom.
+     *
+     * @param pieceIndex  The index of the received piece.
+     * @param pieceLength The length of the received piece in bytes.
+     * @return True if the piece was outstanding on this connection.
+     */
+    public synchronized boolean pieceReceived(int pieceIndex, int pieceLength) {
+        OutstandingRequest outstandingRequest = outstandingRequests.remove(pieceIndex);
+        if (outstandingRequest == null) {
+            return false;
+        }
+
+        long roundTripTime = System.nanoTime() - outstandingRequest.requestTime;
+        deliveredBytes += pieceLength;
+
+        // The lowest round trip is the one least inflated by requests queued ahead of it
+        minRoundTripTime = Math.min(roundTripTime, minRoundTripTime);
+
+        // The timeout follows the smoothed round trip and its variation, as TCP's retransmission timer does
+        if (smoothedRoundTripTime == 0) {
+            smoothedRoundTripTime = roundTripTime;
+            roundTripTimeVariation = roundTripTime / 2.0;
+        } else {
+            roundTripTimeVariation += AppConstants.RTT_VARIATION_SMOOTHING_FACTOR
+                    * (Math.abs(smoothedRoundTripTime - roundTripTime) - roundTripTimeVariation);
+            smoothedRoundTripTime += AppConstants.RATE_SMOOTHING_FACTOR * (roundTripTime - smoothedRoundTripTime);
+        }
+
+        // Everything delivered while this request was in flight, over its round trip, is the rate the connection sustained
+        if (roundTripTime > 0) {
+            double rateSample = (double) (deliveredBytes - outstandingRequest.deliveredBytesAtRequest) / roundTripTime;
+            deliveryRate = deliveryRate == 0 ? rateSample
+                    : deliveryRate + AppConstants.RATE_SMOOTHING_FACTOR * (rateSample - deliveryRate);
+        }
+
+        int bandwidthDelayProduct = (int) Math.ceil(deliveryRate * minRoundTripTime / pieceLength);
+        requestWindow = Math.max(AppConstants.MIN_REQUEST_WINDOW,
+                Math.min(AppConstants.MAX_REQUEST_WINDOW, bandwidthDelayProduct + 1));
+        return true;
+    }
+
+    /**
+     * Forgets all requests in flight, e.g. when the remote peer chokes this connection.
+     *
+     * @return The indices of the pieces that were in flight.
+     */
+    public synchronized List<Integer> clear() {
+        List<Integer> pieceIndices = new ArrayList<>(outstandingRequests.keySet());
+        outstandingRequests.clear();
+        return pieceIndices;
+    }
+
+    /**
+     * Forgets the requests that have been in flight for longer than the request timeout.
+     *
+     * @return The indices of the pieces whose requests timed out.
+     */
+    public synchronized List<Integer> expireRequests() {
+        List<Integer> pieceIndices = new ArrayList<>();
+        long now = System.nanoTime();
+        long requestTimeout = getRequestTimeout();
+
+        Iterator<Map.Entry<Integer, OutstandingRequest>> requests = outstandingRequests.entrySet().iterator();
+        while (requests.hasNext()) {
+            Map.Entry<Integer, OutstandingRequest> request = requests.next();
+            if (now - request.getValue().requestTime > requestTimeout) {
+                pieceIndices.add(request.getKey());
+                requests.remove();
+            }
+        }
+        return pieceIndices;
+    }
+
+    /**
+     * Gets how long a request may stay in flight before it is given up: the smoothed round trip plus
+     * four times its variation, bounded by the configured minimum and maximum.
+     *
+     * @return The request timeout, in nanoseconds.
+     */
+    public synchronized long getRequestTimeout() {
+        if (smoothedRoundTripTime == 0) {
+            return TimeUnit.MILLISECONDS.toNanos(AppConstants.INITIAL_REQUEST_TIMEOUT);
+        }
+        long requestTimeout = (long) (smoothedRoundTripTime + AppConstants.RTT_VARIATION_MULTIPLIER * roundTripTimeVariation);
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(AppConstants.MIN_REQUEST_TIMEOUT),
+                Math.min(TimeUnit.MILLISECONDS.toNanos(AppConstants.MAX_REQUEST_TIMEOUT), requestTimeout));
+    }
+
+    /**
+     * Gets the number of requests allowed in flight.
+     *
+     * @return The current request window.
+     */
+    public synchronized int getRequestWindow() {
+        return requestWindow;
+    }
+
+    /*
+     * OutstandingRequest records when a request was sent and how many bytes had been delivered at that time.
+     */
+    private static class OutstandingRequest {
+        private final long requestTime;
+        private final long deliveredBytesAtRequest;
+
+        private OutstandingRequest(long requestTime, long deliveredBytesAtRequest) {
+            this.requestTime = requestTime;
+            this.deliveredBytesAtRequest = deliveredBytesAtRequest;
+        }
+    }
+}
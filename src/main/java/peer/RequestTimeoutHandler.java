@@ -0,0 +1,43 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.message.MessageHandler;
+
+import java.io.IOException;
+
+public class RequestTimeoutHandler implements Runnable {
+    private final PeerConfiguration peerConfiguration;
+
+    /*
+     * Constructor: RequestTimeoutHandler
+     * Initializes RequestTimeoutHandler with the provided PeerConfiguration.
+     */
+    public RequestTimeoutHandler(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+    }
+
+    /*
+     * Overridden run() method from Runnable.
+     * Runs one sweep of the requests, scheduled by the ChokeScheduler every request timeout check interval.
+     * Timed-out requests are given up and every unchoked connection is refilled, so that pieces whose
+     * reservations were released or have lapsed are requested from another peer even when no piece arrives
+     * to trigger a request. Nothing is left to request once the peer has the file.
+     */
+    @Override
+    public void run() {
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        if (peerData.getHasFile() == AppConstants.PEER_HAS_FILE) {
+            return;
+        }
+        for (PeerConnection peerConnection : peerConfiguration.getPeerProcessIdToConnectionsMap().values()) {
+            if (peerConnection.getIsChokedByPeer()) {
+                continue;
+            }
+            try {
+                MessageHandler.updateBitfieldStatusAndSendRequest(peerConfiguration, peerConnection);
+            } catch (IOException e) {
+                // Ignoring the exception without taking any specific action
+            }
+        }
+    }
+}
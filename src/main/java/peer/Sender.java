@@ -1,14 +1,24 @@
 package main.java.peer;
 
+import main.java.constants.AppConstants;
+import main.java.constants.DisplayConstants;
 import main.java.message.MessageHandler;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
  * Sender class represents a thread responsible for initiating connections and sending messages to peers.
+ * Every peer listed earlier in PeerInfo.cfg is dialed on its own task, up to MAX_CONCURRENT_DIALS at a time,
+ * so a slow or unreachable peer holds up neither the dials to the others nor the handshakes that follow them.
  */
-public class Sender extends Thread {
+public class Sender implements Runnable {
     private final PeerConfiguration peerConfiguration; // Configuration details for the peer
     private final MessageHandler messageHandler;       // Handler for creating and sending messages
 
@@ -18,29 +28,102 @@ public class Sender extends Thread {
         this.peerConfiguration = peerConfiguration;
     }
 
-    // Thread run method
+    // Runnable run method, executed on a thread created by the connection thread factory
     @Override
     public void run() {
         // Retrieving peer data details
         Map<Integer, PeerData> peerIdToDataMap = peerConfiguration.getPeerIdToDataMap();
+        int numberOfDials = Math.min(Math.max(peerIdToDataMap.size() - 1, 1), AppConstants.MAX_CONCURRENT_DIALS);
+        ExecutorService dialers = Executors.newFixedThreadPool(numberOfDials, peerConfiguration.getConnectionThreadFactory());
 
-        try {
-            // Iterating through peer data to establish connections and send handshake messages
-            for (int connPeerProcessId : peerIdToDataMap.keySet()) {
-                if (connPeerProcessId != peerConfiguration.getPeerProcessId()) {
-                    // Retrieving connection peer data
-                    PeerData connPeerData = peerIdToDataMap.get(connPeerProcessId);
-
-                    // Creating socket connection to the peer
-                    Socket connection = new Socket(connPeerData.getHost(), connPeerData.getPortNumber());
-
-                    // Sending handshake message and reading the response
-                    messageHandler.createAndSendHandshake(connection, peerConfiguration);
-                    messageHandler.setConnectionAndReadHandshake(connection, peerConfiguration, connPeerProcessId);
+        // Dialing the peers listed before this one in PeerInfo.cfg, which started before it, concurrently, as the
+        // peers listed after it dial this one; with peers learned of while running, PeerInfo.cfg lists the peers to
+        // start from, which do not know this one yet, so every one of them is dialed. The dialers end once every
+        // dial has finished
+        for (int connPeerProcessId : peerConfiguration.getListedPeerIds()) {
+            if (connPeerProcessId == peerConfiguration.getPeerProcessId()) {
+                if (!peerConfiguration.isMembershipDynamic()) {
+                    break;
                 }
+                continue;
+            }
+            if (peerIdToDataMap.get(connPeerProcessId).getPortNumber() <= 0) {
+                continue;
+            }
+            dialers.execute(() -> dialPeer(peerIdToDataMap.get(connPeerProcessId)));
+        }
+        dialers.shutdown();
+    }
+
+    // Connects to the peer, retrying with exponential backoff while it is not accepting yet, then handshakes.
+    // A peer that cannot be connected to after every attempt is marked unreachable.
+    public void dialPeer(PeerData connPeerData) {
+        int connPeerProcessId = connPeerData.getPeerProcessId();
+        long backoff = AppConstants.INITIAL_CONNECT_BACKOFF;
+        for (int attempt = 1; attempt <= AppConstants.MAX_CONNECT_ATTEMPTS; attempt++) {
+            Socket connection;
+            try {
+                // Creating socket connection to the peer
+                connection = openConnection(connPeerData);
+            } catch (IOException e) {
+                // Waiting a random part of the backoff, so peers retrying together do not dial in step
+                long jitter = ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                PeerHandler.peerHold(backoff / 2 + jitter);
+                backoff = Math.min(backoff * 2, AppConstants.MAX_CONNECT_BACKOFF);
+                continue;
+            }
+            handshake(connection, connPeerProcessId);
+            return;
+        }
+        peerConfiguration.getLogHandler().printMessage(String.format(DisplayConstants.CONNECT_FAILED_MESSAGE,
+                peerConfiguration.getPeerProcessId(), connPeerProcessId, AppConstants.MAX_CONNECT_ATTEMPTS));
+        markUnreachable(connPeerData);
+    }
+
+    // Connects to the peer once, then handshakes; the neighbor rounds dial with it, as a later round dials again.
+    // A peer that no longer accepts connections is marked unreachable only if it was connected to before, since
+    // a peer never connected to may not have started yet.
+    public void dialPeerOnce(PeerData connPeerData) {
+        Socket connection;
+        try {
+            connection = openConnection(connPeerData);
+        } catch (IOException e) {
+            if (connPeerData.getBitfield() != null) {
+                markUnreachable(connPeerData);
             }
-        } catch (Exception e) {
+            return;
+        }
+        handshake(connection, connPeerData.getPeerProcessId());
+    }
+
+    // Sends the handshake message and reads the response
+    private void handshake(Socket connection, int connPeerProcessId) {
+        try {
+            messageHandler.createAndSendHandshake(connection, peerConfiguration);
+            messageHandler.setConnectionAndReadHandshake(connection, peerConfiguration, connPeerProcessId);
+        } catch (IOException e) {
             // Ignoring the exception without taking any specific action
         }
     }
+
+    // Stops waiting for the peer; a peer known to have the file is counted already
+    private void markUnreachable(PeerData connPeerData) {
+        if (connPeerData.getBitfield() == null || !connPeerData.getBitfield().isComplete()) {
+            peerConfiguration.setPeerUnreachable(connPeerData.getPeerProcessId(), true);
+        }
+    }
+
+    // Opens a socket to the peer, backed by a channel so pieces can be transferred to it straight from the file,
+    // giving up on the attempt after the connect timeout
+    private Socket openConnection(PeerData connPeerData) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(connPeerData.getHost(), connPeerData.getPortNumber()),
+                    AppConstants.CONNECT_TIMEOUT);
+            return channel.socket();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
 }
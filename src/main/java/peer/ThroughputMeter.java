@@ -0,0 +1,63 @@
+package main.java.peer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * ThroughputMeter measures the sustained rate of one direction of a connection. Bytes are counted as
+ * they move; a timer samples the count at a fixed interval into a ring of the last few samples, and
+ * the rate is the bytes of the whole window over its duration. A window as long as the unchoking
+ * interval ranks peers on what they sustained over the last round rather than on a single message.
+ */
+public class ThroughputMeter {
+    private final AtomicLong totalBytes;   // Bytes counted since the connection started
+    private final long[] windowBytes;      // Bytes counted in each sample of the window, oldest first from nextSample
+    private int nextSample;                // Position in the window of the next sample
+    private int samplesTaken;              // Number of samples in the window, up to its length
+    private long sampledBytes;             // Total bytes at the last sample
+    private long windowTotalBytes;         // Bytes counted over the whole window
+    private volatile double rate;          // Bytes per second over the window
+
+    // Constructor, for a window of the given number of samples
+    public ThroughputMeter(int windowSamples) {
+        totalBytes = new AtomicLong(0);
+        windowBytes = new long[Math.max(1, windowSamples)];
+    }
+
+    /**
+     * Counts bytes moved on the connection.
+     *
+     * @param bytes The number of bytes.
+     */
+    public void record(long bytes) {
+        if (bytes > 0) {
+            totalBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Takes a sample of the bytes counted since the last one, dropping the oldest sample from the window.
+     *
+     * @param sampleInterval The time since the last sample, in milliseconds.
+     */
+    public synchronized void sample(long sampleInterval) {
+        long total = totalBytes.get();
+        long bytes = total - sampledBytes;
+        sampledBytes = total;
+
+        windowTotalBytes += bytes - windowBytes[nextSample];
+        windowBytes[nextSample] = bytes;
+        nextSample = (nextSample + 1) % windowBytes.length;
+        samplesTaken = Math.min(samplesTaken + 1, windowBytes.length);
+
+        rate = windowTotalBytes * 1000.0 / ((double) samplesTaken * sampleInterval);
+    }
+
+    /**
+     * Gets the rate over the window as of the last sample.
+     *
+     * @return The rate in bytes per second.
+     */
+    public double getRate() {
+        return rate;
+    }
+}
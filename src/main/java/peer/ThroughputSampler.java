@@ -0,0 +1,28 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+
+public class ThroughputSampler implements Runnable {
+    private final PeerConfiguration peerConfiguration;
+
+    /*
+     * Constructor: ThroughputSampler
+     * Initializes ThroughputSampler with the provided PeerConfiguration.
+     */
+    public ThroughputSampler(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+    }
+
+    /*
+     * Overridden run() method from Runnable.
+     * Samples the download and upload meters of every connection, scheduled by the ChokeScheduler
+     * once every sample interval.
+     */
+    @Override
+    public void run() {
+        for (PeerConnection peerConnection : peerConfiguration.getPeerProcessIdToConnectionsMap().values()) {
+            peerConnection.getDownloadMeter().sample(AppConstants.THROUGHPUT_SAMPLE_INTERVAL);
+            peerConnection.getUploadMeter().sample(AppConstants.THROUGHPUT_SAMPLE_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package main.java.peer;
+
+import main.java.constants.AppConstants;
+import main.java.constants.DisplayConstants;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TrackerClient extends Thread {
+    private final PeerConfiguration peerConfiguration;
+    private boolean isTrackerReported;          // Flag indicating if the tracker being unavailable was reported
+
+    /*
+     * Constructor: TrackerClient
+     * Initializes TrackerClient with the provided PeerConfiguration.
+     */
+    public TrackerClient(PeerConfiguration peerConfiguration) {
+        this.peerConfiguration = peerConfiguration;
+        setDaemon(true);
+    }
+
+    /*
+     * Overridden run() method from Thread class.
+     * Announces the peer to the tracker every announce interval, which keeps it on the lists the tracker
+     * hands out, and merges the peers the tracker lists into the known peers.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                for (PeerData listedPeerData : announce()) {
+                    if (peerConfiguration.getPeerDiscovery().mergePeer(listedPeerData)) {
+                        peerConfiguration.getLogHandler().printMessage(String.format(DisplayConstants.PEER_DISCOVERED_MESSAGE,
+                                peerConfiguration.getPeerProcessId(), listedPeerData.getPeerProcessId()));
+                    }
+                }
+                isTrackerReported = false;
+            } catch (IOException | RuntimeException e) {
+                if (!isTrackerReported) {
+                    isTrackerReported = true;
+                    peerConfiguration.getLogHandler().printMessage(String.format(DisplayConstants.TRACKER_UNAVAILABLE_MESSAGE,
+                            peerConfiguration.getPeerProcessId(), peerConfiguration.getTrackerHost(), peerConfiguration.getTrackerPortNumber()));
+                }
+            }
+
+            // Delay for the announce interval
+            PeerHandler.peerHold(AppConstants.TRACKER_ANNOUNCE_INTERVAL);
+        }
+    }
+
+    // Sends the announce of this peer and reads the peers listed in reply, up to the tracker closing the connection
+    private List<PeerData> announce() throws IOException {
+        PeerData peerData = peerConfiguration.getPeerIdToDataMap().get(peerConfiguration.getPeerProcessId());
+        List<PeerData> listedPeers = new ArrayList<>();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peerConfiguration.getTrackerHost(), peerConfiguration.getTrackerPortNumber()),
+                    AppConstants.CONNECT_TIMEOUT);
+            socket.setSoTimeout(AppConstants.CONNECT_TIMEOUT);
+
+            String announce = String.format(AppConstants.TRACKER_ANNOUNCE_FORMAT, peerData.getPeerProcessId(),
+                    peerData.getHost(), peerData.getPortNumber(), peerData.getHasFile());
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(announce.getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String peerEntry;
+            while ((peerEntry = reader.readLine()) != null) {
+                String[] entry = peerEntry.split(AppConstants.CONFIG_FILE_REGEX);
+                if (entry.length == 4) {
+                    listedPeers.add(new PeerData(Integer.parseInt(entry[0]), entry[1], Integer.parseInt(entry[2]), Integer.parseInt(entry[3])));
+                }
+            }
+        }
+        return listedPeers;
+    }
+}
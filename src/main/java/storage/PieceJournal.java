@@ -0,0 +1,107 @@
+package main.java.storage;
+
+import main.java.peer.Bitfield;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Class: PieceJournal
+ * Description: Persists which pieces of the file are safely on disk in a sidecar file next to it,
+ *              holding one byte per piece, so a restarted peer can resume with its exact piece set.
+ */
+public class PieceJournal {
+
+    private static final byte PIECE_PRESENT = 1;
+
+    // Channel of the sidecar file holding the journal
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+
+    /**
+     * Constructor: PieceJournal
+     * Parameters:
+     *   - journalFile: Sidecar file holding the journal
+     *   - numberOfPieces: Number of pieces the file is divided into
+     *   - isReset: True to clear every mark, when the journal was not trusted and the file it describes is
+     *              about to be preallocated afresh, so stale marks never describe pieces the file lacks
+     * Description: Opens the journal, creating it with no pieces marked if it does not exist yet.
+     * Throws: IOException if the journal cannot be opened.
+     */
+    public PieceJournal(File journalFile, int numberOfPieces, boolean isReset) throws IOException {
+        randomAccessFile = new RandomAccessFile(journalFile, "rw");
+        if (isReset) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(numberOfPieces);
+            randomAccessFile.getFD().sync();
+        } else if (randomAccessFile.length() != numberOfPieces) {
+            randomAccessFile.setLength(numberOfPieces);
+        }
+        fileChannel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Method: readJournaledBitfield
+     * Parameters:
+     *   - journalFile: Sidecar file holding the journal
+     *   - dataFile: File the journal describes
+     *   - fileSize: Expected size of the file the journal describes
+     *   - numberOfPieces: Number of pieces the file is divided into
+     * Description: Reads the bitfield recorded by a previous run. The journal is only trusted when
+     *              both it and the file it describes have the expected sizes; otherwise no pieces are reported.
+     * Returns: The recorded bitfield, or null if there is no usable journal.
+     */
+    public static Bitfield readJournaledBitfield(File journalFile, File dataFile, long fileSize, int numberOfPieces) {
+        if (!journalFile.exists() || journalFile.length() != numberOfPieces
+                || !dataFile.exists() || dataFile.length() != fileSize) {
+            return null;
+        }
+
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile, "r")) {
+            byte[] journaledPieces = new byte[numberOfPieces];
+            journal.readFully(journaledPieces);
+
+            Bitfield bitfield = new Bitfield(numberOfPieces);
+            for (int pieceIndex = 0; pieceIndex < numberOfPieces; pieceIndex++) {
+                if (journaledPieces[pieceIndex] == PIECE_PRESENT) {
+                    bitfield.set(pieceIndex);
+                }
+            }
+            return bitfield;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method: markPieces
+     * Parameters:
+     *   - pieceIndices: Indices of pieces whose content has been forced to disk
+     * Description: Records the given pieces as present and forces the journal to disk.
+     *              Callers must only pass pieces that are already durable in the file.
+     * Throws: IOException if the journal cannot be written.
+     */
+    public void markPieces(List<Integer> pieceIndices) throws IOException {
+        ByteBuffer presentByte = ByteBuffer.allocate(1);
+        for (int pieceIndex : pieceIndices) {
+            presentByte.clear();
+            presentByte.put(0, PIECE_PRESENT);
+            fileChannel.write(presentByte, pieceIndex);
+        }
+        fileChannel.force(false);
+    }
+
+    /**
+     * Method: close
+     * Description: Closes the sidecar file holding the journal.
+     * Throws: IOException if the journal cannot be closed.
+     */
+    public void close() throws IOException {
+        fileChannel.close();
+        randomAccessFile.close();
+    }
+}
@@ -0,0 +1,220 @@
+package main.java.storage;
+
+import main.java.constants.AppConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class: PieceStore
+ * Description: Serves and accepts file pieces directly from the file on disk, so that neither
+ *              the complete file nor its pieces are kept on the heap. Pieces are served by
+ *              transferring them from the file to the socket; an incomplete file is preallocated
+ *              as a sparse file and each received piece is transferred from the socket to its offset
+ *              as it arrives.
+ */
+public class PieceStore {
+
+    // Channel of the file backing the pieces
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+
+    // File layout details
+    private final long fileSize;
+    private final int pieceSize;
+    private final int numberOfPieces;
+
+    // Pieces written since the file was last forced to disk, and the journal recording synced pieces
+    private final Queue<Integer> unsyncedPieces;
+    private final PieceJournal pieceJournal;
+
+    /**
+     * Constructor: PieceStore
+     * Parameters:
+     *   - file: File backing the pieces
+     *   - fileSize: Total size of the file in bytes
+     *   - pieceSize: Size of each piece in bytes
+     *   - readOnly: True if the file is complete and pieces are only served from it
+     *   - pieceJournal: Journal recording the pieces forced to disk, or null if none is kept
+     * Description: Opens the file backing the pieces. An incomplete file is sized up front without
+     *              writing any data, which leaves it sparse until the pieces land.
+     * Throws: IOException if the file cannot be opened.
+     */
+    public PieceStore(File file, long fileSize, int pieceSize, boolean readOnly, PieceJournal pieceJournal) throws IOException {
+        this.fileSize = fileSize;
+        this.pieceSize = pieceSize;
+        this.numberOfPieces = getNumberOfPieces(fileSize, pieceSize);
+        this.unsyncedPieces = new ConcurrentLinkedQueue<>();
+        this.pieceJournal = pieceJournal;
+
+        randomAccessFile = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        fileChannel = randomAccessFile.getChannel();
+
+        if (!readOnly && randomAccessFile.length() != fileSize) {
+            randomAccessFile.setLength(fileSize);
+        }
+    }
+
+    /**
+     * Method: getNumberOfPieces
+     * Parameters:
+     *   - fileSize: Total size of the file in bytes
+     *   - pieceSize: Size of each piece in bytes
+     * Description: Calculates the number of pieces for the file. Piece indices travel as 4-byte
+     *              fields on the wire, so a file needing more pieces than that is rejected.
+     * Throws: ArithmeticException if the number of pieces does not fit in an int.
+     */
+    public static int getNumberOfPieces(long fileSize, int pieceSize) {
+        return Math.toIntExact((fileSize + pieceSize - 1) / pieceSize);
+    }
+
+    /**
+     * Method: getNumberOfPieces
+     * Description: Returns the number of pieces the file is divided into.
+     */
+    public int getNumberOfPieces() {
+        return numberOfPieces;
+    }
+
+    /**
+     * Method: getPieceLength
+     * Parameters:
+     *   - pieceIndex: Index of the piece
+     * Description: Returns the length of the given piece; only the last piece may be shorter than the piece size.
+     */
+    public int getPieceLength(int pieceIndex) {
+        return (int) Math.min(pieceSize, fileSize - getPieceOffset(pieceIndex));
+    }
+
+    /**
+     * Method: getPieceOffset
+     * Parameters:
+     *   - pieceIndex: Index of the piece
+     * Description: Returns the byte offset of the given piece within the file.
+     */
+    public long getPieceOffset(int pieceIndex) {
+        return (long) pieceIndex * pieceSize;
+    }
+
+    /**
+     * Method: transferPiece
+     * Parameters:
+     *   - pieceIndex: Index of the piece to transfer
+     *   - offsetInPiece: Offset within the piece to start from
+     *   - count: Maximum number of bytes to transfer
+     *   - target: Channel to transfer the bytes to
+     * Description: Transfers part of the given piece from the file straight to the target channel.
+     *              For a socket channel this is the kernel's sendfile path, so the bytes never reach the heap.
+     * Returns: The number of bytes transferred, which may be fewer than requested.
+     * Throws: IOException if the piece cannot be transferred.
+     */
+    public long transferPiece(int pieceIndex, long offsetInPiece, long count, WritableByteChannel target) throws IOException {
+        return fileChannel.transferTo(getPieceOffset(pieceIndex) + offsetInPiece, count, target);
+    }
+
+    /**
+     * Method: readPiece
+     * Parameters:
+     *   - pieceIndex: Index of the piece to read
+     *   - offsetInPiece: Offset within the piece to start from
+     *   - destination: Buffer to read the bytes into, up to its limit
+     * Description: Reads part of the given piece from the file into the buffer, for targets that a
+     *              transfer cannot wait on.
+     * Returns: The number of bytes read, which may be fewer than the space remaining in the buffer.
+     * Throws: IOException if the piece cannot be read.
+     */
+    public int readPiece(int pieceIndex, long offsetInPiece, ByteBuffer destination) throws IOException {
+        return fileChannel.read(destination, getPieceOffset(pieceIndex) + offsetInPiece);
+    }
+
+    /**
+     * Method: receivePiece
+     * Parameters:
+     *   - pieceIndex: Index of the piece to receive
+     *   - offsetInPiece: Offset within the piece to start from
+     *   - count: Maximum number of bytes to receive
+     *   - source: Channel to transfer the bytes from
+     * Description: Transfers part of the given piece from the source channel straight into the file at
+     *              its offset, so the bytes never reach the heap.
+     * Returns: The number of bytes transferred, which may be fewer than requested, and is 0 both when
+     *          a non-blocking source has nothing to read and at the end of the stream.
+     * Throws: IOException if the piece cannot be transferred.
+     */
+    public long receivePiece(int pieceIndex, long offsetInPiece, long count, ReadableByteChannel source) throws IOException {
+        return fileChannel.transferFrom(source, getPieceOffset(pieceIndex) + offsetInPiece, count);
+    }
+
+    /**
+     * Method: writePiece
+     * Parameters:
+     *   - pieceIndex: Index of the piece to write
+     *   - offsetInPiece: Offset within the piece to start from
+     *   - source: Buffer holding the bytes to write, up to its limit
+     * Description: Writes part of the given piece from the buffer into the file at its offset.
+     * Throws: IOException if the piece cannot be written.
+     */
+    public void writePiece(int pieceIndex, long offsetInPiece, ByteBuffer source) throws IOException {
+        long position = getPieceOffset(pieceIndex) + offsetInPiece;
+        while (source.hasRemaining()) {
+            position += fileChannel.write(source, position);
+        }
+    }
+
+    /**
+     * Method: commitPiece
+     * Parameters:
+     *   - pieceIndex: Index of the piece that has been received in full
+     * Description: Schedules the received piece to be forced to disk. The file is forced once every
+     *              PIECE_SYNC_BATCH_SIZE pieces rather than per piece, by the caller's flush, and pieces
+     *              are only journaled once they have been forced. Nothing is written to disk here.
+     * Returns: True if a batch of pieces is waiting and the file should be flushed.
+     */
+    public boolean commitPiece(int pieceIndex) {
+        unsyncedPieces.add(pieceIndex);
+        return unsyncedPieces.size() >= AppConstants.PIECE_SYNC_BATCH_SIZE;
+    }
+
+    /**
+     * Method: flush
+     * Description: Forces the pieces written so far out to the file on disk, then records them in the journal.
+     * Throws: IOException if the file or the journal cannot be forced to disk.
+     */
+    public void flush() throws IOException {
+        List<Integer> syncedPieces = new ArrayList<>();
+        Integer pieceIndex;
+        while ((pieceIndex = unsyncedPieces.poll()) != null) {
+            syncedPieces.add(pieceIndex);
+        }
+        if (syncedPieces.isEmpty()) {
+            return;
+        }
+
+        fileChannel.force(false);
+        if (pieceJournal != null) {
+            pieceJournal.markPieces(syncedPieces);
+        }
+    }
+
+    /**
+     * Method: close
+     * Description: Flushes and closes the file backing the pieces.
+     * Throws: IOException if the file cannot be closed.
+     */
+    public void close() throws IOException {
+        flush();
+        fileChannel.close();
+        randomAccessFile.close();
+        if (pieceJournal != null) {
+            pieceJournal.close();
+        }
+    }
+}
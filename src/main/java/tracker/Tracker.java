@@ -0,0 +1,135 @@
+package main.java.tracker;
+
+import main.java.constants.AppConstants;
+import main.java.peer.PeerData;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class: Tracker
+ * Description: Lightweight tracker the peers announce themselves to. A peer connects, sends a single
+ *              line "ANNOUNCE <peerId> <host> <port> <hasFile>", and receives up to TRACKER_PEER_LIST_SIZE
+ *              other peers picked at random, one per line in the format of PeerInfo.cfg, before the
+ *              tracker closes the connection. Peers that have not announced themselves again within
+ *              TRACKER_PEER_EXPIRY are no longer handed out, so peers that left drop off the lists.
+ */
+public class Tracker {
+
+    private final Map<Integer, TrackedPeer> trackedPeers;
+    private final ExecutorService requestHandlers;
+
+    /**
+     * Constructor: Tracker
+     * Description: Initializes the tracker with no peers and the pool of threads answering announces.
+     */
+    public Tracker() {
+        trackedPeers = new ConcurrentHashMap<>();
+        requestHandlers = Executors.newFixedThreadPool(AppConstants.THREAD_POOL_SIZE);
+    }
+
+    /**
+     * Method: run
+     * Parameters:
+     *   - portNumber: Port the tracker listens on
+     * Description: Accepts announces until the process ends, answering each on the thread pool.
+     * Throws: IOException if the server socket cannot be opened.
+     */
+    public void run(int portNumber) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
+            while (true) {
+                Socket connection = serverSocket.accept();
+                requestHandlers.execute(() -> handleAnnounce(connection));
+            }
+        }
+    }
+
+    /**
+     * Method: handleAnnounce
+     * Parameters:
+     *   - connection: Connection of the announcing peer
+     * Description: Records the announcing peer and answers with a random part of the other live peers.
+     */
+    private void handleAnnounce(Socket connection) {
+        try (Socket socket = connection) {
+            socket.setSoTimeout(AppConstants.CONNECT_TIMEOUT);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String[] announce = String.valueOf(reader.readLine()).split(AppConstants.CONFIG_FILE_REGEX);
+            if (announce.length != 5 || !AppConstants.TRACKER_ANNOUNCE.equals(announce[0])) {
+                return;
+            }
+            int peerProcessId = Integer.parseInt(announce[1]);
+            PeerData peerData = new PeerData(peerProcessId, announce[2], Integer.parseInt(announce[3]), Integer.parseInt(announce[4]));
+            long now = System.currentTimeMillis();
+            trackedPeers.put(peerProcessId, new TrackedPeer(peerData, now));
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            for (PeerData listedPeer : selectPeers(peerProcessId, now)) {
+                writer.write(String.format(AppConstants.TRACKER_PEER_ENTRY, listedPeer.getPeerProcessId(),
+                        listedPeer.getHost(), listedPeer.getPortNumber(), listedPeer.getHasFile()));
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            // Ignoring the exception without taking any specific action
+        }
+    }
+
+    /**
+     * Method: selectPeers
+     * Parameters:
+     *   - peerProcessId: ID of the announcing peer, left out of the list
+     *   - now: Time of the announce
+     * Description: Drops the peers whose last announce has expired and picks up to TRACKER_PEER_LIST_SIZE
+     *              of the others at random, so that peers announcing again over time learn different peers.
+     * Returns: The picked peers.
+     */
+    private List<PeerData> selectPeers(int peerProcessId, long now) {
+        trackedPeers.values().removeIf(trackedPeer -> now - trackedPeer.lastAnnounce > AppConstants.TRACKER_PEER_EXPIRY);
+
+        List<PeerData> peers = new ArrayList<>();
+        for (TrackedPeer trackedPeer : trackedPeers.values()) {
+            if (trackedPeer.peerData.getPeerProcessId() != peerProcessId) {
+                peers.add(trackedPeer.peerData);
+            }
+        }
+        if (peers.size() <= AppConstants.TRACKER_PEER_LIST_SIZE) {
+            return peers;
+        }
+
+        // Partial shuffle, moving a random pick of the remaining peers to the front of the list
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int peer = 0; peer < AppConstants.TRACKER_PEER_LIST_SIZE; peer++) {
+            Collections.swap(peers, peer, peer + random.nextInt(peers.size() - peer));
+        }
+        return peers.subList(0, AppConstants.TRACKER_PEER_LIST_SIZE);
+    }
+
+    /**
+     * Class: TrackedPeer
+     * Description: A peer as it last announced itself, and the time of that announce.
+     */
+    private static class TrackedPeer {
+        private final PeerData peerData;
+        private final long lastAnnounce;
+
+        private TrackedPeer(PeerData peerData, long lastAnnounce) {
+            this.peerData = peerData;
+            this.lastAnnounce = lastAnnounce;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package main.java;
+
+import main.java.constants.DisplayConstants;
+import main.java.tracker.Tracker;
+
+import java.io.IOException;
+
+/*
+ * The main class 'trackerProcess' starts the tracker the peers announce themselves to.
+ */
+public class trackerProcess {
+    public static void main(String[] args) throws IOException {
+        // Retrieving the tracker port from command line arguments
+        int portNumber = Integer.parseInt(args[0]);
+
+        // Displaying initialization message
+        System.out.println(String.format(DisplayConstants.INIT_TRACKER_MESSAGE, portNumber));
+
+        // Starting the tracker
+        new Tracker().run(portNumber);
+    }
+}